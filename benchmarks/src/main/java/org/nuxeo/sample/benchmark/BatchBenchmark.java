@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.BatchPermissionEvaluator;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.DcRightsSecurityPolicy;
+import org.nuxeo.sample.DocumentFacts;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+import org.nuxeo.sample.Verdicts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares checking a page of documents one {@code checkPermission} call at a time, the way a caller loops today, to
+ * one {@link BatchPermissionEvaluator} call over the same policies.
+ * <p>
+ * The documents mix the restricted and unrestricted cases of every policy, generated from a fixed seed. Results are
+ * per page, divide by {@code pageSize} for the cost per document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BatchBenchmark {
+
+    protected static final String[] PERMISSIONS = { READ };
+
+    @Param({ "100", "10000" })
+    public int pageSize;
+
+    // same order as the policies contributions
+    protected List<SecurityPolicy> policies = List.of(new DcExpiredSecurityPolicy(), new LifeCycleSecurityPolicy(),
+            new ArchivedSecurityPolicy(), new DcRightsSecurityPolicy(), new NoItarSecurityPolicy());
+
+    protected BatchPermissionEvaluator evaluator = new BatchPermissionEvaluator(policies);
+
+    protected NuxeoPrincipal principal;
+
+    protected List<Document> docs;
+
+    @Setup
+    public void setUp() {
+        principal = Stubs.principal("user1", "members", DcRightsSecurityPolicy.PRINCIPAL_GROUP1);
+        docs = page(pageSize);
+    }
+
+    /**
+     * A page of stub documents mixing the restricted and unrestricted cases of every policy.
+     */
+    protected static List<Document> page(int size) {
+        Random random = new Random(42);
+        List<Document> docs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            boolean customFile = random.nextInt(4) == 0;
+            Stubs.DocumentBuilder builder = Stubs.document(customFile ? "CustomFile" : "File");
+            if (customFile) {
+                builder.lifeCycleState(random.nextBoolean() ? "archived" : "draft");
+            } else {
+                builder.lifeCycleState(random.nextInt(10) < 8 ? "approved" : "project");
+            }
+            Calendar expired = null;
+            if (random.nextInt(10) == 0) {
+                expired = Calendar.getInstance();
+                expired.add(Calendar.YEAR, random.nextBoolean() ? -1 : 1);
+                expired.getTimeInMillis();
+            }
+            String rights = random.nextInt(3) == 0 ? null
+                    : random.nextBoolean() ? DcRightsSecurityPolicy.RIGHTS_GROUP1 : DcRightsSecurityPolicy.RIGHTS_GROUP2;
+            docs.add(builder.property(DcExpiredSecurityPolicy.DC_EXPIRED_FIELD, expired)
+                            .property(DcRightsSecurityPolicy.DC_RIGHTS_FIELD, rights)
+                            .property(NoItarSecurityPolicy.ITAR_FIELD, random.nextInt(10) == 0 ? "Yes" : "No")
+                            .build());
+        }
+        return docs;
+    }
+
+    @Benchmark
+    public Access[] perDocument() {
+        Access[] verdicts = new Access[docs.size()];
+        for (int i = 0; i < verdicts.length; i++) {
+            Access access = Access.UNKNOWN;
+            for (SecurityPolicy policy : policies) {
+                access = policy.checkPermission(docs.get(i), null, principal, READ, PERMISSIONS, null);
+                if (access != Access.UNKNOWN) {
+                    break;
+                }
+            }
+            verdicts[i] = access;
+        }
+        return verdicts;
+    }
+
+    @Benchmark
+    public Verdicts batch() {
+        // the document properties are read in the measurement, like perDocument does
+        return evaluator.evaluate(DocumentFacts.of(docs), principal, READ);
+    }
+
+}
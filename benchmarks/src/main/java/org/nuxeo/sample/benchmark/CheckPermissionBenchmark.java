@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.DcRightsSecurityPolicy;
+import org.nuxeo.sample.ItarRestriction;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link SecurityPolicy#checkPermission} of every sample policy against stub documents.
+ * <p>
+ * Run with the GC profiler to get the bytes allocated per call:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar CheckPermissionBenchmark -prof gc
+ * </pre>
+ *
+ * The {@code restricted} case hits the branch where the policy has an opinion (DENY, or GRANT for dc:rights), the
+ * {@code unrestricted} case falls through to {@link Access#UNKNOWN}. {@link #stubBaseline} reads the same attributes
+ * without any policy logic, subtract it to get the cost of the policy itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CheckPermissionBenchmark {
+
+    protected static final String[] PERMISSIONS = { READ };
+
+    @Param({ "restricted", "unrestricted" })
+    public String docCase;
+
+    protected SecurityPolicy lifeCycle = new LifeCycleSecurityPolicy();
+
+    protected SecurityPolicy archived = new ArchivedSecurityPolicy();
+
+    protected SecurityPolicy dcExpired = new DcExpiredSecurityPolicy();
+
+    protected SecurityPolicy dcRights = new DcRightsSecurityPolicy();
+
+    protected SecurityPolicy noItar = new NoItarSecurityPolicy(false);
+
+    protected SecurityPolicy noItarFacet = new NoItarSecurityPolicy(true);
+
+    protected NuxeoPrincipal principal;
+
+    protected Document lifeCycleDoc;
+
+    protected Document archivedDoc;
+
+    protected Document dcExpiredDoc;
+
+    protected Document dcRightsDoc;
+
+    protected Document noItarDoc;
+
+    protected Document noItarFacetDoc;
+
+    @Setup
+    public void setUp() {
+        boolean restricted = "restricted".equals(docCase);
+        principal = Stubs.principal("user1", "members", DcRightsSecurityPolicy.PRINCIPAL_GROUP1);
+
+        lifeCycleDoc = Stubs.document("File").lifeCycleState(restricted ? "project" : "approved").build();
+        archivedDoc = Stubs.document("CustomFile").lifeCycleState(restricted ? "draft" : "archived").build();
+
+        Calendar expired = Calendar.getInstance();
+        expired.add(Calendar.YEAR, restricted ? -1 : 1);
+        dcExpiredDoc = Stubs.document("File").property(DcExpiredSecurityPolicy.DC_EXPIRED_FIELD, expired).build();
+
+        dcRightsDoc = Stubs.document("File")
+                           .property(DcRightsSecurityPolicy.DC_RIGHTS_FIELD,
+                                   restricted ? DcRightsSecurityPolicy.RIGHTS_GROUP1 : null)
+                           .build();
+
+        noItarDoc = Stubs.document("File")
+                         .property(NoItarSecurityPolicy.ITAR_FIELD, restricted ? "Yes" : "No")
+                         .build();
+
+        Stubs.DocumentBuilder facetDoc = Stubs.document("File");
+        if (restricted) {
+            facetDoc.facet(ItarRestriction.FACET);
+        }
+        noItarFacetDoc = facetDoc.build();
+    }
+
+    @Benchmark
+    public void stubBaseline(Blackhole bh) {
+        bh.consume(dcExpiredDoc.getType().getName());
+        bh.consume(dcExpiredDoc.getLifeCycleState());
+        bh.consume(dcExpiredDoc.getPropertyValue(DcExpiredSecurityPolicy.DC_EXPIRED_FIELD));
+    }
+
+    @Benchmark
+    public Access lifeCycle() {
+        return lifeCycle.checkPermission(lifeCycleDoc, null, principal, READ, PERMISSIONS, null);
+    }
+
+    @Benchmark
+    public Access archived() {
+        return archived.checkPermission(archivedDoc, null, principal, READ, PERMISSIONS, null);
+    }
+
+    @Benchmark
+    public Access dcExpired() {
+        return dcExpired.checkPermission(dcExpiredDoc, null, principal, READ, PERMISSIONS, null);
+    }
+
+    @Benchmark
+    public Access dcRights() {
+        return dcRights.checkPermission(dcRightsDoc, null, principal, READ, PERMISSIONS, null);
+    }
+
+    @Benchmark
+    public Access noItar() {
+        return noItar.checkPermission(noItarDoc, null, principal, READ, PERMISSIONS, null);
+    }
+
+    @Benchmark
+    public Access noItarFacet() {
+        return noItarFacet.checkPermission(noItarFacetDoc, null, principal, READ, PERMISSIONS, null);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.PolicyMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Checks that {@link DcExpiredSecurityPolicy#checkPermission} does not allocate, with its metrics recorded, and that
+ * recording the metrics alone doesn't either, see {@link PolicyMetrics}.
+ * <p>
+ * The stub document answers through a {@link java.lang.reflect.Proxy}, which may allocate its argument array, so the
+ * policy is compared to {@link #propertyRead} doing the same property read alone. Run the check with:
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.nuxeo.sample.benchmark.DcExpiredAllocationBenchmark
+ * </pre>
+ *
+ * It exits with a non-zero status when the policy allocates more than the property read, or the metrics allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcExpiredAllocationBenchmark {
+
+    // gc.alloc.rate.norm is an average, leave room for the rare allocation from JMH itself
+    protected static final double TOLERANCE_BYTES = 0.5;
+
+    protected static final String[] PERMISSIONS = { READ };
+
+    @Param({ "expired", "notExpired" })
+    public String docCase;
+
+    protected DcExpiredSecurityPolicy policy = new DcExpiredSecurityPolicy();
+
+    protected PolicyMetrics metrics = PolicyMetrics.of("allocation");
+
+    protected NuxeoPrincipal principal;
+
+    protected Document doc;
+
+    @Setup
+    public void setUp() {
+        principal = Stubs.principal("user1", "members");
+        Calendar expired = Calendar.getInstance();
+        expired.add(Calendar.YEAR, "expired".equals(docCase) ? -1 : 1);
+        // compute the time fields now, not on the first read
+        expired.getTimeInMillis();
+        doc = Stubs.document("File").property(DcExpiredSecurityPolicy.DC_EXPIRED_FIELD, expired).build();
+    }
+
+    @Benchmark
+    public Object propertyRead() {
+        return doc.getPropertyValue(DcExpiredSecurityPolicy.DC_EXPIRED_FIELD);
+    }
+
+    @Benchmark
+    public Access checkPermission() {
+        return policy.checkPermission(doc, null, principal, READ, PERMISSIONS, null);
+    }
+
+    @Benchmark
+    public Access recordCheck() {
+        return metrics.checked(System.nanoTime(), READ, Access.UNKNOWN);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Collection<RunResult> results = new Runner(new OptionsBuilder().include(
+                DcExpiredAllocationBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+        boolean failed = false;
+        for (String docCase : new String[] { "expired", "notExpired" }) {
+            double read = allocated(results, "propertyRead", docCase);
+            double check = allocated(results, "checkPermission", docCase);
+            System.out.printf("%s: checkPermission %.2f B/op, property read alone %.2f B/op%n", docCase, check, read);
+            failed |= check - read > TOLERANCE_BYTES;
+            double record = allocated(results, "recordCheck", docCase);
+            System.out.printf("%s: metrics alone %.2f B/op%n", docCase, record);
+            failed |= record > TOLERANCE_BYTES;
+        }
+        if (failed) {
+            System.err.println("DcExpiredSecurityPolicy.checkPermission or its metrics allocate");
+            System.exit(1);
+        }
+    }
+
+    protected static double allocated(Collection<RunResult> results, String benchmark, String docCase) {
+        for (RunResult result : results) {
+            if (result.getParams().getBenchmark().endsWith("." + benchmark)
+                    && docCase.equals(result.getParams().getParam("docCase"))) {
+                Result<?> norm = result.getSecondaryResults().get("gc.alloc.rate.norm");
+                return norm.getScore();
+            }
+        }
+        throw new IllegalStateException("No result for " + benchmark + " " + docCase);
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.sample.DcRightsSecurityPolicy.DcRightsTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-query garbage of {@link DcRightsTransformer}, with and without the transformed query cache.
+ * <p>
+ * Compare {@code gc.alloc.rate.norm} between {@code queryCacheSize=0} (shared filters only, a {@link SQLQuery}, its
+ * {@code WhereClause} and, with a WHERE clause, the AND {@code Predicate} per query) and a non-zero size (the same
+ * parsed query gets the same {@link SQLQuery} instance back, a hit only allocates what the LRU bookkeeping does):
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar DcRightsTransformerBenchmark -prof gc
+ * </pre>
+ *
+ * Running the {@code dcRights} case of {@link TransformerBenchmark} on a build before the filters were shared gives
+ * the original per-query allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DcRightsTransformerBenchmark {
+
+    @Param({ "0", "1024" })
+    public long queryCacheSize;
+
+    @Param({ "GROUP1", "GROUP3" })
+    public String group;
+
+    protected DcRightsTransformer transformer;
+
+    protected NuxeoPrincipal principal;
+
+    protected SQLQuery noWhere;
+
+    protected SQLQuery withWhere;
+
+    @Setup
+    public void setUp() {
+        // without a UserManager the stub principal carries its groups, see EntitlementsCache.resolve
+        transformer = new DcRightsTransformer(queryCacheSize);
+        principal = Stubs.principal("user-" + group, "members", group);
+        noWhere = SQLQueryParser.parse("SELECT * FROM Document");
+        withWhere = SQLQueryParser.parse("SELECT * FROM File WHERE ecm:isTrashed = 0 AND ecm:isVersion = 0"
+                + " ORDER BY dc:modified DESC");
+    }
+
+    @Benchmark
+    public SQLQuery noWhere() {
+        return transformer.transform(principal, noWhere);
+    }
+
+    @Benchmark
+    public SQLQuery withWhere() {
+        return transformer.transform(principal, withWhere);
+    }
+
+}
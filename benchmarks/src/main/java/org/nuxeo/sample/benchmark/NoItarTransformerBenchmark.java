@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transform cost of {@link NoItarSecurityPolicy.NoItarTransformer} for ITAR readers, whose queries are returned
+ * untouched, and for the other users, who get the shared {@code NOT (...)} filter.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar NoItarTransformerBenchmark -prof gc
+ * </pre>
+ *
+ * The {@code noItar} case of {@link TransformerBenchmark} on a build before the short-circuit gives the original cost,
+ * where the filtered query was built and thrown away for readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class NoItarTransformerBenchmark {
+
+    @Param({ "reader", "nonReader" })
+    public String principalType;
+
+    protected Transformer transformer = NoItarSecurityPolicy.NO_ITAR_TRANSFORMER;
+
+    protected NuxeoPrincipal principal;
+
+    protected SQLQuery noWhere;
+
+    protected SQLQuery withWhere;
+
+    @Setup
+    public void setUp() {
+        principal = "reader".equals(principalType)
+                ? Stubs.principal("engineer", "members", NoItarSecurityPolicy.ITAR_READERS_GROUP)
+                : Stubs.principal("contractor", "members");
+        noWhere = SQLQueryParser.parse("SELECT * FROM Document");
+        withWhere = SQLQueryParser.parse("SELECT * FROM File WHERE ecm:isTrashed = 0 AND ecm:isVersion = 0"
+                + " ORDER BY dc:modified DESC");
+    }
+
+    @Benchmark
+    public SQLQuery noWhere() {
+        return transformer.transform(principal, noWhere);
+    }
+
+    @Benchmark
+    public SQLQuery withWhere() {
+        return transformer.transform(principal, withWhere);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.BatchPermissionEvaluator;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.DcRightsSecurityPolicy;
+import org.nuxeo.sample.DocumentFacts;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+import org.nuxeo.sample.ParallelBatchPermissionEvaluator;
+import org.nuxeo.sample.Verdicts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scaling of {@link ParallelBatchPermissionEvaluator} from 1 to 32 worker threads on a bulk export sized batch, against
+ * the sequential {@link BatchPermissionEvaluator}.
+ * <p>
+ * The measurement includes reading the columns on the calling thread, which stays sequential. Pass
+ * {@code -p threads=1,2,4,...} to match the cores of the machine:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ParallelBatchBenchmark -p threads=1,2,4,8,16,32
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelBatchBenchmark {
+
+    @Param({ "1", "2", "4", "8", "16", "32" })
+    public int threads;
+
+    @Param({ "1024", "8192" })
+    public int chunkSize;
+
+    @Param({ "200000" })
+    public int batchSize;
+
+    // same order as the policies contributions
+    protected List<SecurityPolicy> policies = List.of(new DcExpiredSecurityPolicy(), new LifeCycleSecurityPolicy(),
+            new ArchivedSecurityPolicy(), new DcRightsSecurityPolicy(), new NoItarSecurityPolicy());
+
+    protected NuxeoPrincipal principal;
+
+    protected List<Document> docs;
+
+    protected ForkJoinPool pool;
+
+    protected BatchPermissionEvaluator sequential;
+
+    protected BatchPermissionEvaluator parallel;
+
+    @Setup
+    public void setUp() {
+        principal = Stubs.principal("user1", "members", DcRightsSecurityPolicy.PRINCIPAL_GROUP1);
+        docs = BatchBenchmark.page(batchSize);
+        pool = new ForkJoinPool(threads);
+        sequential = new BatchPermissionEvaluator(policies);
+        parallel = new ParallelBatchPermissionEvaluator(policies, pool, chunkSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Verdicts sequential() {
+        return sequential.evaluate(DocumentFacts.of(docs), principal, READ);
+    }
+
+    @Benchmark
+    public Verdicts parallel() {
+        return parallel.evaluate(DocumentFacts.of(docs), principal, READ);
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.RuleSecurityPolicy;
+import org.nuxeo.sample.RuleSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the compiled {@link RuleSet} with the hand-written lifecycle and archived policies it replaces, on the same
+ * stub documents.
+ * <p>
+ * {@link #rules} evaluates both rules in one call, compare it with {@link #handWritten} which calls both policies.
+ * Run with {@code -prof gc} to check that the compiled rules don't allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RuleBenchmark {
+
+    protected static final String[] PERMISSIONS = { READ };
+
+    @Param({ "restricted", "unrestricted" })
+    public String docCase;
+
+    protected SecurityPolicy lifeCycle = new LifeCycleSecurityPolicy();
+
+    protected SecurityPolicy archived = new ArchivedSecurityPolicy();
+
+    protected SecurityPolicy rules = new RuleSecurityPolicy();
+
+    protected NuxeoPrincipal principal;
+
+    protected Document lifeCycleDoc;
+
+    protected Document archivedDoc;
+
+    protected SQLQuery query;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> expressions = new LinkedHashMap<>();
+        expressions.put("lifecycle", "type=File AND state!=approved -> DENY");
+        expressions.put("archived", "type=CustomFile AND state!=archived -> DENY");
+        RuleSet.install(RuleSet.compile(expressions));
+
+        boolean restricted = "restricted".equals(docCase);
+        principal = Stubs.principal("user1", "members");
+        lifeCycleDoc = Stubs.document("File").lifeCycleState(restricted ? "project" : "approved").build();
+        archivedDoc = Stubs.document("CustomFile").lifeCycleState(restricted ? "draft" : "archived").build();
+        query = SQLQueryParser.parse("SELECT * FROM Document WHERE ecm:isTrashed = 0");
+    }
+
+    @TearDown
+    public void tearDown() {
+        RuleSet.install(RuleSet.EMPTY);
+    }
+
+    @Benchmark
+    public void handWritten(Blackhole bh) {
+        bh.consume(lifeCycle.checkPermission(lifeCycleDoc, null, principal, READ, PERMISSIONS, null));
+        bh.consume(archived.checkPermission(lifeCycleDoc, null, principal, READ, PERMISSIONS, null));
+        bh.consume(lifeCycle.checkPermission(archivedDoc, null, principal, READ, PERMISSIONS, null));
+        bh.consume(archived.checkPermission(archivedDoc, null, principal, READ, PERMISSIONS, null));
+    }
+
+    @Benchmark
+    public void rules(Blackhole bh) {
+        bh.consume(rules.checkPermission(lifeCycleDoc, null, principal, READ, PERMISSIONS, null));
+        bh.consume(rules.checkPermission(archivedDoc, null, principal, READ, PERMISSIONS, null));
+    }
+
+    @Benchmark
+    public SQLQuery handWrittenTransform() {
+        return ArchivedSecurityPolicy.ARCHIVED_TRANSFORMER.transform(principal,
+                LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER.transform(principal, query));
+    }
+
+    @Benchmark
+    public SQLQuery rulesTransform() {
+        return RuleSecurityPolicy.RULE_TRANSFORMER.transform(principal, query);
+    }
+
+}
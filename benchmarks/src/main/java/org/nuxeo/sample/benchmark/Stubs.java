@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.schema.DocumentType;
+
+/**
+ * In-memory stand-ins for {@link Document} and {@link NuxeoPrincipal} so the policies can be measured without a
+ * running repository.
+ * <p>
+ * Only the methods the sample policies call are answered, anything else throws so that a policy starting to depend on
+ * more of the document shows up immediately instead of silently benchmarking a {@code null}.
+ */
+public final class Stubs {
+
+    private Stubs() {
+    }
+
+    public static NuxeoPrincipal principal(String name, String... groups) {
+        return new UserPrincipal(name, new ArrayList<>(Arrays.asList(groups)), false, false);
+    }
+
+    public static DocumentBuilder document(String type) {
+        return new DocumentBuilder(type);
+    }
+
+    public static class DocumentBuilder {
+
+        protected final String type;
+
+        protected String lifeCycleState;
+
+        protected final Map<String, Object> properties = new HashMap<>();
+
+        protected final Set<String> facets = new HashSet<>();
+
+        protected DocumentBuilder(String type) {
+            this.type = type;
+        }
+
+        public DocumentBuilder lifeCycleState(String lifeCycleState) {
+            this.lifeCycleState = lifeCycleState;
+            return this;
+        }
+
+        public DocumentBuilder property(String xpath, Object value) {
+            properties.put(xpath, value);
+            return this;
+        }
+
+        public DocumentBuilder facet(String facet) {
+            facets.add(facet);
+            return this;
+        }
+
+        public Document build() {
+            DocumentType docType = proxy(DocumentType.class, new TypeHandler(type));
+            return proxy(Document.class,
+                    new DocumentHandler(UUID.randomUUID().toString(), docType, lifeCycleState, new HashMap<>(properties),
+                            new HashSet<>(facets)));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static <T> T proxy(Class<T> klass, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { klass }, handler);
+    }
+
+    protected static class TypeHandler implements InvocationHandler {
+
+        protected final String name;
+
+        protected TypeHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+            case "getName":
+                return name;
+            case "toString":
+                return "DocumentType(" + name + ")";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException("DocumentType." + method.getName());
+            }
+        }
+    }
+
+    protected static class DocumentHandler implements InvocationHandler {
+
+        protected final String id;
+
+        protected final DocumentType type;
+
+        protected final String lifeCycleState;
+
+        protected final Map<String, Object> properties;
+
+        protected final Set<String> facets;
+
+        protected DocumentHandler(String id, DocumentType type, String lifeCycleState, Map<String, Object> properties,
+                Set<String> facets) {
+            this.id = id;
+            this.type = type;
+            this.lifeCycleState = lifeCycleState;
+            this.properties = properties;
+            this.facets = facets;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+            case "getUUID":
+                return id;
+            case "getType":
+                return type;
+            case "getLifeCycleState":
+                return lifeCycleState;
+            case "getPropertyValue":
+                return properties.get(args[0]);
+            case "readPrefetch":
+                Map<String, Serializable> values = new HashMap<>();
+                for (Object xpath : (Set<?>) args[1]) {
+                    values.put((String) xpath, (Serializable) properties.get(xpath));
+                }
+                return values;
+            case "hasFacet":
+                return facets.contains(args[0]);
+            case "toString":
+                return "Document(" + type.getName() + ", " + id + ")";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException("Document." + method.getName());
+            }
+        }
+    }
+
+}
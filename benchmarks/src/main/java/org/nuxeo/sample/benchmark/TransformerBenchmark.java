@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.DcRightsSecurityPolicy;
+import org.nuxeo.sample.DcRightsSecurityPolicy.DcRightsTransformer;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+import org.nuxeo.sample.PredicateNormalizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the query transformers of the sample policies, one by one and chained in registration order like
+ * {@code SecurityPolicyService} applies them to every NXQL query.
+ * <p>
+ * Queries are parsed once in setup, the benchmarks only measure the transformation. Run with {@code -prof gc} to get
+ * the garbage produced per query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TransformerBenchmark {
+
+    protected static final Map<String, String> QUERIES = new HashMap<>();
+
+    static {
+        QUERIES.put("noWhere", "SELECT * FROM Document");
+        QUERIES.put("simple", "SELECT * FROM File WHERE ecm:parentId = '0d1a1f6e-3c2a-4a53-9bd1-5b4c6d1b7a10'"
+                + " AND ecm:isTrashed = 0 AND ecm:isVersion = 0");
+        QUERIES.put("deepTree", "SELECT * FROM Document WHERE ecm:mixinType != 'HiddenInNavigation'"
+                + " AND (dc:title LIKE 'report%' OR dc:description LIKE '%quarterly%'"
+                + " OR (dc:creator = 'user1' AND (dc:modified > TIMESTAMP '2020-01-01T00:00:00'"
+                + " OR (ecm:currentLifeCycleState = 'project' AND dc:language = 'en'))))"
+                + " AND (ecm:primaryType = 'File' OR ecm:primaryType = 'Note' OR ecm:primaryType = 'Picture')"
+                + " AND ecm:isTrashed = 0 AND ecm:isVersion = 0 AND ecm:isProxy = 0");
+        QUERIES.put("orderByLimit", "SELECT * FROM Document WHERE ecm:path STARTSWITH '/default-domain/workspaces'"
+                + " AND ecm:isTrashed = 0 ORDER BY dc:modified DESC, dc:title LIMIT 40 OFFSET 80");
+        StringBuilder in = new StringBuilder("SELECT * FROM Document WHERE ecm:uuid IN (");
+        for (int i = 0; i < 500; i++) {
+            in.append(i == 0 ? "" : ", ").append('\'').append(String.format("%08x-0000-0000-0000-000000000000", i)).append('\'');
+        }
+        QUERIES.put("largeInList", in.append(") AND ecm:isTrashed = 0").toString());
+    }
+
+    @Param({ "noWhere", "simple", "deepTree", "orderByLimit", "largeInList" })
+    public String queryShape;
+
+    @Param({ "system", "Administrator", "groupedUser", "ungroupedUser" })
+    public String principalType;
+
+    protected SQLQuery query;
+
+    protected NuxeoPrincipal principal;
+
+    protected Transformer lifeCycle = LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER;
+
+    protected Transformer archived = ArchivedSecurityPolicy.ARCHIVED_TRANSFORMER;
+
+    protected Transformer dcExpired = DcExpiredSecurityPolicy.DC_EXPIRED_TRANSFORMER;
+
+    protected Transformer dcRights = new DcRightsTransformer();
+
+    protected Transformer noItar = NoItarSecurityPolicy.NO_ITAR_TRANSFORMER;
+
+    protected Transformer[] chain;
+
+    protected PredicateNormalizer normalizer = new OfflinePredicateNormalizer();
+
+    @Setup
+    public void setUp() {
+        query = SQLQueryParser.parse(QUERIES.get(queryShape));
+        switch (principalType) {
+        case "groupedUser":
+            principal = Stubs.principal("user1", "members", DcRightsSecurityPolicy.PRINCIPAL_GROUP1,
+                    NoItarSecurityPolicy.ITAR_READERS_GROUP);
+            break;
+        case "ungroupedUser":
+            principal = Stubs.principal("user4", "members");
+            break;
+        default:
+            principal = Stubs.principal(principalType);
+        }
+        // same order as the policies contributions
+        chain = new Transformer[] { dcExpired, lifeCycle, archived, dcRights, noItar };
+    }
+
+    @Benchmark
+    public SQLQuery lifeCycle() {
+        return lifeCycle.transform(principal, query);
+    }
+
+    @Benchmark
+    public SQLQuery archived() {
+        return archived.transform(principal, query);
+    }
+
+    @Benchmark
+    public SQLQuery dcExpired() {
+        return dcExpired.transform(principal, query);
+    }
+
+    @Benchmark
+    public SQLQuery dcRights() {
+        return dcRights.transform(principal, query);
+    }
+
+    @Benchmark
+    public SQLQuery noItar() {
+        return noItar.transform(principal, query);
+    }
+
+    @Benchmark
+    public SQLQuery chained() {
+        SQLQuery q = query;
+        for (Transformer transformer : chain) {
+            q = transformer.transform(principal, q);
+        }
+        return q;
+    }
+
+    @Benchmark
+    public SQLQuery chainedNormalized() {
+        return normalizer.normalize(chained());
+    }
+
+    /**
+     * Knows the single valued fields of the benchmark queries instead of asking the {@code SchemaManager}.
+     */
+    protected static class OfflinePredicateNormalizer extends PredicateNormalizer {
+
+        protected static final Set<String> SCALAR_FIELDS = Set.of("dc:title", "dc:description", "dc:creator",
+                "dc:modified", "dc:language", "dc:expired", "dc:rights", NoItarSecurityPolicy.ITAR_FIELD);
+
+        @Override
+        protected boolean isScalar(String name) {
+            return name.startsWith("ecm:") ? super.isScalar(name) : SCALAR_FIELDS.contains(name);
+        }
+    }
+
+}
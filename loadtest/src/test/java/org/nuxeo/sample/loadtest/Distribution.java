@@ -0,0 +1,57 @@
+package org.nuxeo.sample.loadtest;
+
+import java.util.Random;
+
+/**
+ * Weighted values parsed from a spec such as {@code GROUP1:40,GROUP2:30,-:30}, where {@code -} stands for no value.
+ */
+public class Distribution {
+
+    public static final String NONE = "-";
+
+    protected final String[] values;
+
+    // running total of the weights, values[i] is picked for a draw below cumulative[i]
+    protected final int[] cumulative;
+
+    protected Distribution(String[] values, int[] cumulative) {
+        this.values = values;
+        this.cumulative = cumulative;
+    }
+
+    public static Distribution parse(String spec) {
+        String[] entries = spec.split(",");
+        String[] values = new String[entries.length];
+        int[] cumulative = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i].trim();
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected value:weight in " + spec);
+            }
+            String value = entry.substring(0, colon);
+            values[i] = value.equals(NONE) ? null : value;
+            total += Integer.parseInt(entry.substring(colon + 1));
+            cumulative[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("No positive weight in " + spec);
+        }
+        return new Distribution(values, cumulative);
+    }
+
+    /**
+     * Returns a value drawn with the configured weights, {@code null} for {@code -}.
+     */
+    public String next(Random random) {
+        int draw = random.nextInt(cumulative[cumulative.length - 1]);
+        for (int i = 0; i < cumulative.length; i++) {
+            if (draw < cumulative[i]) {
+                return values[i];
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+}
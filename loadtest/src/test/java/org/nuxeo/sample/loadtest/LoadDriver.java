@@ -0,0 +1,151 @@
+package org.nuxeo.sample.loadtest;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.DocumentSecurityException;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import io.dropwizard.metrics5.Snapshot;
+import io.dropwizard.metrics5.Timer;
+import io.dropwizard.metrics5.UniformReservoir;
+
+/**
+ * Drives concurrent listing queries and document fetches, each thread cycling through the principals, and measures
+ * them once warmed up.
+ * <p>
+ * Every value is read from a {@code loadtest.*} system property, see the fields for the defaults.
+ */
+public class LoadDriver {
+
+    protected int threads = Integer.getInteger("loadtest.threads", 8).intValue();
+
+    protected int warmupSeconds = Integer.getInteger("loadtest.warmupSeconds", 3).intValue();
+
+    protected int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 10).intValue();
+
+    // percentage of the operations that are queries, the others are getDocument
+    protected int queryRatio = Integer.getInteger("loadtest.queryRatio", 50).intValue();
+
+    protected int pageSize = Integer.getInteger("loadtest.pageSize", 40).intValue();
+
+    protected final CoreFeature coreFeature;
+
+    protected final List<NuxeoPrincipal> principals;
+
+    protected final List<String> folderIds;
+
+    protected final List<String> documentIds;
+
+    public LoadDriver(CoreFeature coreFeature, List<NuxeoPrincipal> principals, List<String> folderIds,
+            List<String> documentIds) {
+        this.coreFeature = coreFeature;
+        this.principals = principals;
+        this.folderIds = folderIds;
+        this.documentIds = documentIds;
+    }
+
+    /**
+     * Runs the warmup then the measured phase, must be called outside of a transaction.
+     */
+    public Result run(String scenario) throws InterruptedException {
+        run(warmupSeconds, new Result(scenario));
+        Result result = new Result(scenario);
+        run(durationSeconds, result);
+        return result;
+    }
+
+    protected void run(int seconds, Result result) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            executor.execute(() -> {
+                try {
+                    for (int i = first; System.nanoTime() < end; i += threads) {
+                        operation(principals.get(i % principals.size()), result);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        result.elapsedNanos = System.nanoTime() - start;
+        executor.shutdown();
+    }
+
+    protected void operation(NuxeoPrincipal principal, Result result) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean query = random.nextInt(100) < queryRatio;
+        long start = System.nanoTime();
+        TransactionHelper.runInTransaction(() -> {
+            try (CloseableCoreSession session = coreFeature.openCoreSession(principal)) {
+                if (query) {
+                    String folderId = folderIds.get(random.nextInt(folderIds.size()));
+                    session.query("SELECT * FROM Document WHERE ecm:parentId = '" + folderId + "'", null, pageSize,
+                            0, false);
+                } else {
+                    try {
+                        session.getDocument(new IdRef(documentIds.get(random.nextInt(documentIds.size()))));
+                    } catch (DocumentSecurityException e) {
+                        result.denied.incrementAndGet();
+                    }
+                }
+            }
+        });
+        (query ? result.queries : result.fetches).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The latencies of one scenario.
+     */
+    public static class Result {
+
+        protected final String scenario;
+
+        protected final Timer queries = new Timer(new UniformReservoir(100_000));
+
+        protected final Timer fetches = new Timer(new UniformReservoir(100_000));
+
+        protected final AtomicLong denied = new AtomicLong();
+
+        protected long elapsedNanos;
+
+        protected Result(String scenario) {
+            this.scenario = scenario;
+        }
+
+        public long getOperations() {
+            return queries.getCount() + fetches.getCount();
+        }
+
+        public static String header() {
+            return String.format("%-12s %10s %10s %10s %10s %10s %10s %8s", "scenario", "ops/s", "query p50",
+                    "query p99", "get p50", "get p99", "queries", "denied");
+        }
+
+        // latencies in milliseconds
+        @Override
+        public String toString() {
+            Snapshot q = queries.getSnapshot();
+            Snapshot f = fetches.getSnapshot();
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%-12s %10.0f %10.2f %10.2f %10.2f %10.2f %10d %8d", scenario,
+                    getOperations() / seconds, q.getMedian() / 1e6, q.get99thPercentile() / 1e6,
+                    f.getMedian() / 1e6, f.get99thPercentile() / 1e6, queries.getCount(), denied.get());
+        }
+    }
+
+}
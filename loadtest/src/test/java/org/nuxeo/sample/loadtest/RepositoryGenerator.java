@@ -0,0 +1,116 @@
+package org.nuxeo.sample.loadtest;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.lifecycle.LifeCycleConstants;
+import org.nuxeo.ecm.core.api.security.ACE;
+import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
+import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.DcRightsSecurityPolicy;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+
+/**
+ * Generates a synthetic repository: folders of documents whose type, lifecycle state, dc:rights, ITAR value and
+ * dc:expired are drawn from the configured {@link Distribution}s. The same seed gives the same repository.
+ * <p>
+ * Every value is read from a {@code loadtest.*} system property, see the fields for the defaults.
+ */
+public class RepositoryGenerator {
+
+    private static final Logger log = LogManager.getLogger(RepositoryGenerator.class);
+
+    public static final String ROOT = "/loadtest";
+
+    protected int documents = Integer.getInteger("loadtest.documents", 2000).intValue();
+
+    protected int folderSize = Integer.getInteger("loadtest.folderSize", 200).intValue();
+
+    protected long seed = Long.getLong("loadtest.seed", 42).longValue();
+
+    protected Distribution types = Distribution.parse(System.getProperty("loadtest.types", "File:80,CustomFile:20"));
+
+    protected Distribution fileStates = Distribution.parse(
+            System.getProperty("loadtest.fileStates", "project:30,approved:70"));
+
+    protected Distribution customFileStates = Distribution.parse(
+            System.getProperty("loadtest.customFileStates", "draft:50,archived:50"));
+
+    protected Distribution rights = Distribution.parse(
+            System.getProperty("loadtest.rights", "DEFAULT:10,GROUP1:30,GROUP2:20,GROUP3:10,-:30"));
+
+    protected Distribution itar = Distribution.parse(System.getProperty("loadtest.itar", "Yes:10,No:60,-:30"));
+
+    // past: already expired, future: expires in a year
+    protected Distribution expired = Distribution.parse(
+            System.getProperty("loadtest.expired", "past:10,future:40,-:50"));
+
+    protected final List<String> folderIds = new ArrayList<>();
+
+    protected final List<String> documentIds = new ArrayList<>();
+
+    /**
+     * Creates the documents, committing once per folder. Must be called in a transaction, a new one is started before
+     * returning.
+     */
+    public void generate(CoreSession session) {
+        long start = System.currentTimeMillis();
+        Random random = new Random(seed);
+
+        DocumentModel root = session.createDocument(session.createDocumentModel("/", "loadtest", "Folder"));
+        // readable by all the generated principals, only the policies restrict them
+        ACP acp = new ACPImpl();
+        acp.addACE(ACL.LOCAL_ACL, new ACE(SecurityConstants.EVERYONE, SecurityConstants.READ, true));
+        session.setACP(root.getRef(), acp, true);
+
+        DocumentModel folder = null;
+        for (int i = 0; i < documents; i++) {
+            if (i % folderSize == 0) {
+                commit(session);
+                folder = session.createDocument(session.createDocumentModel(ROOT, "folder" + folderIds.size(), "Folder"));
+                folderIds.add(folder.getId());
+            }
+            String type = types.next(random);
+            DocumentModel doc = session.createDocumentModel(folder.getPathAsString(), "doc" + i, type);
+            String state = ("CustomFile".equals(type) ? customFileStates : fileStates).next(random);
+            doc.putContextData(LifeCycleConstants.INITIAL_LIFECYCLE_STATE_OPTION_NAME, state);
+            doc.setPropertyValue(DcRightsSecurityPolicy.DC_RIGHTS_FIELD, rights.next(random));
+            doc.setPropertyValue(NoItarSecurityPolicy.ITAR_FIELD, itar.next(random));
+            String expiry = expired.next(random);
+            if (expiry != null) {
+                Calendar calendar = Calendar.getInstance();
+                calendar.add(Calendar.YEAR, "past".equals(expiry) ? -1 : 1);
+                doc.setPropertyValue(DcExpiredSecurityPolicy.DC_EXPIRED_FIELD, calendar);
+            }
+            documentIds.add(session.createDocument(doc).getId());
+        }
+        commit(session);
+        log.info("Generated {} documents in {} folders in {} ms", documents, folderIds.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    protected void commit(CoreSession session) {
+        session.save();
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+    }
+
+    public List<String> getFolderIds() {
+        return folderIds;
+    }
+
+    public List<String> getDocumentIds() {
+        return documentIds;
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.nuxeo.sample.loadtest;
+
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.ecm.core.security.AbstractSecurityPolicy;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+
+/**
+ * Delegates to the policies of the running load test scenario, so that they can be switched without redeploying.
+ * <p>
+ * Checks return the first verdict other than UNKNOWN and queries go through every transformer in order, like the
+ * {@code SecurityPolicyService} does with registered policies.
+ */
+public class ScenarioSecurityPolicy extends AbstractSecurityPolicy {
+
+    private static volatile List<SecurityPolicy> policies = List.of();
+
+    public static void enable(List<SecurityPolicy> scenarioPolicies) {
+        policies = List.copyOf(scenarioPolicies);
+    }
+
+    @Override
+    public Access checkPermission(Document doc, ACP mergedAcp, NuxeoPrincipal principal, String permission,
+            String[] resolvedPermissions, String[] additionalPrincipals) {
+        for (SecurityPolicy policy : policies) {
+            Access access = policy.checkPermission(doc, mergedAcp, principal, permission, resolvedPermissions,
+                    additionalPrincipals);
+            if (access != Access.UNKNOWN) {
+                return access;
+            }
+        }
+        return Access.UNKNOWN;
+    }
+
+    @Override
+    public boolean isRestrictingPermission(String permission) {
+        // whatever the scenario, the service may cache the answer
+        return true;
+    }
+
+    @Override
+    public boolean isExpressibleInQuery(String repositoryName) {
+        return true;
+    }
+
+    @Override
+    public Transformer getQueryTransformer(String repositoryName) {
+        List<SecurityPolicy> scenario = policies;
+        return (principal, query) -> {
+            SQLQuery transformed = query;
+            for (SecurityPolicy policy : scenario) {
+                transformed = policy.getQueryTransformer(repositoryName).transform(principal, transformed);
+            }
+            return transformed;
+        };
+    }
+
+}
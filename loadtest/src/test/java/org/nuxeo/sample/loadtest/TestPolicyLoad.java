@@ -0,0 +1,134 @@
+package org.nuxeo.sample.loadtest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.CompositeSecurityPolicy;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.DcRightsSecurityPolicy;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+import org.nuxeo.sample.NormalizingSecurityPolicy;
+
+/**
+ * Generates a repository then measures listing queries and document fetches with no policy, each policy alone, and
+ * the policies together. Run it with:
+ *
+ * <pre>
+ * mvn -f loadtest/pom.xml test -Dloadtest.documents=100000 -Dloadtest.threads=32
+ * </pre>
+ *
+ * Against the default in-memory repository the numbers only compare the scenarios, run it with
+ * {@code -Dnuxeo.test.core=vcs} and a real database to size hardware. See {@link RepositoryGenerator} and
+ * {@link LoadDriver} for the other properties. {@code loadtest.scenarios} selects the scenarios to run.
+ */
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@Deploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-service.xml",
+    "org.nuxeo.sample.securitypolicy.loadtest:OSGI-INF/loadtest-contrib.xml"
+})
+public class TestPolicyLoad {
+
+    private static final Logger log = LogManager.getLogger(TestPolicyLoad.class);
+
+    protected static final Map<String, Supplier<List<SecurityPolicy>>> SCENARIOS = new LinkedHashMap<>();
+
+    static {
+        SCENARIOS.put("none", List::of);
+        SCENARIOS.put("lifecycle", () -> List.of(new LifeCycleSecurityPolicy()));
+        SCENARIOS.put("archived", () -> List.of(new ArchivedSecurityPolicy()));
+        SCENARIOS.put("expired", () -> List.of(new DcExpiredSecurityPolicy()));
+        SCENARIOS.put("rights", () -> List.of(new DcRightsSecurityPolicy()));
+        SCENARIOS.put("itar", () -> List.of(new NoItarSecurityPolicy()));
+        SCENARIOS.put("all", () -> List.of(new LifeCycleSecurityPolicy(), new ArchivedSecurityPolicy(),
+                new DcExpiredSecurityPolicy(), new DcRightsSecurityPolicy(), new NoItarSecurityPolicy()));
+        // the same WHERE clause as "all" once normalized, compare them with -Dnuxeo.test.core=vcs
+        SCENARIOS.put("normalized", () -> List.of(new LifeCycleSecurityPolicy(), new ArchivedSecurityPolicy(),
+                new DcExpiredSecurityPolicy(), new DcRightsSecurityPolicy(), new NoItarSecurityPolicy(),
+                new NormalizingSecurityPolicy()));
+        SCENARIOS.put("composite", () -> List.of(new CompositeSecurityPolicy(), new DcRightsSecurityPolicy()));
+    }
+
+    protected int principalCount = Integer.getInteger("loadtest.principals", 50).intValue();
+
+    protected Distribution principalGroups = Distribution.parse(
+            System.getProperty("loadtest.principalGroups", "GROUP1:40,GROUP2:30,GROUP3:10,-:20"));
+
+    // percentage of the principals in the ITAR readers group
+    protected int itarReaders = Integer.getInteger("loadtest.itarReaders", 50).intValue();
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Test
+    public void testLoad() throws Exception {
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.generate(session);
+        TransactionHelper.commitOrRollbackTransaction();
+
+        LoadDriver driver = new LoadDriver(coreFeature, principals(), generator.getFolderIds(),
+                generator.getDocumentIds());
+        List<String> results = new ArrayList<>();
+        try {
+            for (String scenario : System.getProperty("loadtest.scenarios", String.join(",", SCENARIOS.keySet()))
+                                          .split(",")) {
+                ScenarioSecurityPolicy.enable(SCENARIOS.get(scenario.trim()).get());
+                LoadDriver.Result result = driver.run(scenario.trim());
+                assertTrue(scenario, result.getOperations() > 0);
+                results.add(result.toString());
+            }
+        } finally {
+            ScenarioSecurityPolicy.enable(List.of());
+            TransactionHelper.startTransaction();
+        }
+
+        StringBuilder report = new StringBuilder("\n").append(LoadDriver.Result.header());
+        results.forEach(line -> report.append('\n').append(line));
+        log.info(report);
+    }
+
+    protected List<NuxeoPrincipal> principals() {
+        Random random = new Random(Long.getLong("loadtest.seed", 42).longValue());
+        List<NuxeoPrincipal> principals = new ArrayList<>(principalCount);
+        for (int i = 0; i < principalCount; i++) {
+            List<String> groups = new ArrayList<>();
+            groups.add("members");
+            String group = principalGroups.next(random);
+            if (group != null) {
+                groups.add(group);
+            }
+            if (random.nextInt(100) < itarReaders) {
+                groups.add(NoItarSecurityPolicy.ITAR_READERS_GROUP);
+            }
+            principals.add(new UserPrincipal("loaduser" + i, groups, false, false));
+        }
+        return principals;
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.Set;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+
+/**
+ * A security policy able to decide many documents for one principal at once.
+ * <p>
+ * The principal level work (group membership, clock read) is done once per batch instead of once per document, and
+ * the document properties are read once for all the policies through {@link DocumentFacts}.
+ */
+public interface BatchSecurityPolicy extends SecurityPolicy {
+
+    /**
+     * Decides the documents still undecided in {@code verdicts}, as {@link #checkPermission} would one by one.
+     * <p>
+     * The entitlements of the principal and the configuration they were computed on are resolved by the caller, on the
+     * thread owning the session: the batch may be decided on other threads, which must only read the columns of
+     * {@code docs} and never go to the user directory.
+     */
+    void checkPermissions(DocumentFacts docs, NuxeoPrincipal principal, Entitlements entitlements, PolicyConfig config,
+            String permission, Verdicts verdicts);
+
+    /**
+     * The {@link DocumentFacts} columns {@link #checkPermissions} reads, the document properties among them are
+     * prefetched together before the evaluation.
+     */
+    Set<DocumentFacts.Column> getColumns();
+
+}
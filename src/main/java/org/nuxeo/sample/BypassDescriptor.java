@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.runtime.model.Descriptor;
+
+/**
+ * A user or a group whose queries and documents are left alone by the sample policies.
+ *
+ * <pre>
+ * &lt;bypass user="Administrator" /&gt;
+ * &lt;bypass group="administrators" /&gt;
+ * </pre>
+ *
+ * A later contribution with {@code remove="true"} removes a previously contributed one.
+ */
+@XObject("bypass")
+public class BypassDescriptor implements Descriptor {
+
+    @XNode("@user")
+    protected String user;
+
+    @XNode("@group")
+    protected String group;
+
+    @XNode("@remove")
+    protected boolean remove;
+
+    @Override
+    public String getId() {
+        return user != null ? "user:" + user : "group:" + group;
+    }
+
+    @Override
+    public boolean doesRemove() {
+        return remove;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+}
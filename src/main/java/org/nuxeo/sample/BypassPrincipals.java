@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+
+/**
+ * The users and groups whose queries the sample policies don't filter, compiled from the {@code bypass} contributions.
+ * Their permission checks still go through the policies.
+ * <p>
+ * Matching is done once per principal, when its {@link Entitlements} are computed: a set lookup of the user name, then
+ * a membership test per bypass group. The query transformers then only read
+ * {@link Entitlements#isUnrestricted()}.
+ */
+public class BypassPrincipals {
+
+    // the principals hardcoded before they were contributed, used when the component is not deployed
+    public static final BypassPrincipals DEFAULT = new BypassPrincipals(Set.of("system", "Administrator"), Set.of());
+
+    protected final Set<String> users;
+
+    protected final Set<String> groups;
+
+    protected BypassPrincipals(Set<String> users, Set<String> groups) {
+        this.users = users;
+        this.groups = groups;
+    }
+
+    public static BypassPrincipals current() {
+        return PolicyConfig.current().getBypass();
+    }
+
+    public static void install(BypassPrincipals bypass) {
+        PolicyConfig.update(config -> config.withBypass(bypass));
+    }
+
+    public static BypassPrincipals compile(List<BypassDescriptor> descriptors) {
+        Set<String> users = new HashSet<>();
+        Set<String> groups = new HashSet<>();
+        for (BypassDescriptor descriptor : descriptors) {
+            if (descriptor.getUser() != null) {
+                users.add(descriptor.getUser());
+            }
+            if (descriptor.getGroup() != null) {
+                groups.add(descriptor.getGroup());
+            }
+        }
+        return new BypassPrincipals(Collections.unmodifiableSet(users), Collections.unmodifiableSet(groups));
+    }
+
+    /**
+     * Whether the user bypasses the policies, {@code resolved} is the principal holding its groups, {@code null} if
+     * unknown.
+     */
+    public boolean matches(String principalName, NuxeoPrincipal resolved) {
+        if (users.contains(principalName)) {
+            return true;
+        }
+        if (resolved != null) {
+            for (String group : groups) {
+                if (resolved.isMemberOf(group)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public Set<String> getUsers() {
+        return users;
+    }
+
+    public Set<String> getGroups() {
+        return groups;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.time.Clock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A "now" in epoch millis, refreshed in the background at a fixed resolution.
+ * <p>
+ * Reading it is a couple of volatile reads, no {@link java.util.Calendar} or {@link java.time.Instant} is created,
+ * which is what the per-document permission checks need. The value lags the real time by at most the resolution.
+ * Until started, or once stopped, it reads the underlying clock on every call and has no thread running.
+ * <p>
+ * The clock of the policies is started and stopped with the {@link SecurityPolicyComponent}, see
+ * {@link SecurityPolicyComponent#clock()}.
+ */
+public class CoarseClock {
+
+    public static final long DEFAULT_RESOLUTION_MILLIS = 1000;
+
+    protected final Clock clock;
+
+    protected final long resolutionMillis;
+
+    protected volatile long millis;
+
+    // null when not started
+    protected volatile ScheduledExecutorService scheduler;
+
+    public CoarseClock(Clock clock, long resolutionMillis) {
+        this.clock = clock;
+        this.resolutionMillis = resolutionMillis;
+        millis = clock.millis();
+    }
+
+    public synchronized CoarseClock start() {
+        if (scheduler == null) {
+            tick();
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "security-policy-coarse-clock");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::tick, resolutionMillis, resolutionMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    // also called directly by tests driving the underlying clock by hand
+    public void tick() {
+        millis = clock.millis();
+    }
+
+    public long millis() {
+        return scheduler != null ? millis : clock.millis();
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import static org.nuxeo.sample.DcExpiredSecurityPolicy.DC_EXPIRED_FIELD;
+
+import java.io.Serializable;
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.query.sql.model.Expression;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.ecm.core.query.sql.model.WhereClause;
+import org.nuxeo.ecm.core.security.AbstractSecurityPolicy;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.sample.DcExpiredSecurityPolicy.DcExpiredTransformer;
+import org.nuxeo.sample.DocumentFacts.Column;
+
+/**
+ * The lifecycle, archived, expired and ITAR restrictions in a single policy, to register instead of the four of them.
+ * <p>
+ * The document attributes are fetched once and the rules evaluated in one pass, stopping at the first DENY. The query
+ * transformer adds one {@code NOT (rule1 OR rule2 OR ...)} predicate instead of one {@code AND NOT (...)} wrapper per
+ * policy. The rules themselves are the ones of the separate policies.
+ */
+public class CompositeSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy, BatchSecurityPolicy {
+
+    private static final Log log = LogFactory.getLog(CompositeSecurityPolicy.class);
+
+    // name under which the policy is measured, see PolicyMetrics
+    public static final String POLICY_NAME = "composite";
+
+    protected static final PolicyMetrics METRICS = PolicyMetrics.of(POLICY_NAME);
+
+    protected final CoarseClock clock;
+
+    // whether to evaluate the ITAR rule, null to apply it when the ITAR field is deployed, see PolicyConfig
+    protected final Boolean itarRule;
+
+    protected final CompositeTransformer transformer = new CompositeTransformer(this);
+
+    public CompositeSecurityPolicy() {
+        this(SecurityPolicyComponent.clock(), null);
+    }
+
+    public CompositeSecurityPolicy(CoarseClock clock, Boolean itarRule) {
+        this.clock = clock;
+        this.itarRule = itarRule;
+    }
+
+    @Override
+    public Access checkPermission(Document doc, ACP mergedAcp, NuxeoPrincipal principal, String permission,
+            String[] resolvedPermissions, String[] additionalPrincipals) {
+
+        long start = System.nanoTime();
+        long now = clock.millis();
+        PolicyConfig config = PolicyConfig.current();
+        boolean itarReader = Entitlements.of(principal).isItarReader();
+        // the verdict only depends on the reader flag of the principal
+        VerdictCache.Key key = VerdictCache.key(POLICY_NAME, doc, Boolean.valueOf(itarReader), permission);
+        Access cached = VerdictCache.lookup(key, now);
+        if (cached != null) {
+            return METRICS.checked(start, permission, cached);
+        }
+
+        // fetched once for all the rules
+        String type = doc.getType().getName();
+        String lifeCycle = doc.getLifeCycleState();
+
+        // cheapest rules first, they only need the type and lifecycle state
+        if (LifeCycleSecurityPolicy.isDenied(config, type, lifeCycle)
+                || ArchivedSecurityPolicy.isDenied(config, type, lifeCycle)) {
+            return METRICS.checked(start, permission, VerdictCache.store(key, Access.DENY));
+        }
+
+        // on Files the expiry and ITAR value are read in one go
+        boolean itarFile = config.isFile(type) && hasItarRule(config);
+        Map<String, Serializable> fileValues = null;
+        if (itarFile) {
+            try {
+                fileValues = doc.readPrefetch(doc.getType(), config.getFileFields());
+            } catch (Exception e) {
+                // not cached, the next check logs it again
+                log.error(e.toString());
+            }
+        }
+
+        Calendar expired = (Calendar) (fileValues != null ? fileValues.get(DC_EXPIRED_FIELD)
+                : doc.getPropertyValue(DC_EXPIRED_FIELD));
+        if (DcExpiredSecurityPolicy.isExpired(expired, now)) {
+            return METRICS.checked(start, permission, VerdictCache.store(key, Access.DENY));
+        }
+
+        if (itarFile) {
+            if (fileValues == null) {
+                // the ITAR value couldn't be read
+                return METRICS.checked(start, permission, Access.UNKNOWN);
+            }
+            if (NoItarSecurityPolicy.isItar((String) fileValues.get(config.getItarField())) && !itarReader) {
+                return METRICS.checked(start, permission, VerdictCache.store(key, Access.DENY));
+            }
+        }
+        // not cached past the expiry, the document is denied from then on
+        long notAfter = expired == null ? VerdictCache.FOREVER : expired.getTimeInMillis();
+        return METRICS.checked(start, permission, VerdictCache.store(key, Access.UNKNOWN, notAfter));
+    }
+
+    @Override
+    public void checkPermissions(DocumentFacts docs, NuxeoPrincipal principal, Entitlements entitlements,
+            PolicyConfig config, String permission, Verdicts verdicts) {
+
+        long start = System.nanoTime();
+        // principal and clock work done once for the batch
+        long now = clock.millis();
+        boolean itarRule = hasItarRule(config) && !entitlements.isItarReader();
+        String[] types = docs.types();
+        String[] lifeCycles = docs.lifeCycleStates();
+        long[] expired = docs.expired();
+        String[] itar = itarRule ? docs.itar() : null;
+        int evaluated = 0;
+        int denied = 0;
+
+        for (int i = verdicts.nextUndecided(0); i >= 0; i = verdicts.nextUndecided(i + 1)) {
+            evaluated++;
+            String type = types[i];
+            String lifeCycle = lifeCycles[i];
+            if (LifeCycleSecurityPolicy.isDenied(config, type, lifeCycle)
+                    || ArchivedSecurityPolicy.isDenied(config, type, lifeCycle)
+                    || expired[i] < now || (itarRule && NoItarSecurityPolicy.isItar(itar[i]))) {
+                verdicts.deny(i);
+                denied++;
+            }
+        }
+        METRICS.batchChecked(start, permission, evaluated, 0, denied);
+    }
+
+    @Override
+    public Set<Column> getColumns() {
+        Set<Column> columns = EnumSet.of(Column.TYPE, Column.LIFECYCLE_STATE, Column.EXPIRED);
+        if (hasItarRule(PolicyConfig.current())) {
+            columns.add(Column.ITAR);
+        }
+        return columns;
+    }
+
+    protected boolean hasItarRule(PolicyConfig config) {
+        return itarRule != null ? itarRule.booleanValue() : config.isItarDeployed();
+    }
+
+    @Override
+    public boolean isRestrictingPermission(String permission) {
+        return true;
+    }
+
+    @Override
+    public boolean isExpressibleInQuery(String repositoryName) {
+        return true;
+    }
+
+    @Override
+    public Transformer getQueryTransformer(String repositoryName) {
+        return transformer;
+    }
+
+    public static class CompositeTransformer implements Transformer {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final transient CompositeSecurityPolicy policy;
+
+        // only used for its time bucketed expiry expression
+        protected final transient DcExpiredTransformer expiredTransformer = new DcExpiredTransformer();
+
+        protected transient volatile Filters filters;
+
+        public CompositeTransformer(CompositeSecurityPolicy policy) {
+            this.policy = policy;
+        }
+
+        // A SQL Query is made whenever a document listing is shown
+        // This transformer changes the SQL query so that restricted documents are not shown in results
+        @Override
+        public SQLQuery transform(NuxeoPrincipal principal, SQLQuery query) {
+
+            long start = System.nanoTime();
+
+            Entitlements entitlements = Entitlements.of(principal);
+
+            // if user bypasses the policies do nothing
+            if (entitlements.isUnrestricted()) {
+                return METRICS.transformed(start, principal, query);
+            }
+
+            Filters f = getFilters();
+            Predicate filter = entitlements.isItarReader() ? f.forItarReaders : f.forOthers;
+
+            WhereClause where = query.where;
+            Predicate predicate;
+            if (where == null || where.predicate == null) {
+                predicate = filter;
+            } else {
+                predicate = new Predicate(where.predicate, Operator.AND, filter);
+            }
+            return METRICS.transformed(start, principal, new SQLQuery(query.select, query.from,
+                    new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset));
+        }
+
+        // rebuilt only when the expiry filter moves to its next time bucket, or the configuration and its positive
+        // filters change
+        protected Filters getFilters() {
+            DcExpiredTransformer.ExpiredFilter expired = expiredTransformer.getFilter();
+            PolicyConfig config = PolicyConfig.current();
+            Filters f = filters;
+            if (f == null || f.expired != expired || f.config != config) {
+                f = new Filters(config, expired, config.getPositiveFilter(PolicyConfig.FILE_TYPE),
+                        config.getPositiveFilter(PolicyConfig.CUSTOM_FILE_TYPE), policy.hasItarRule(config));
+                filters = f;
+            }
+            return f;
+        }
+
+        protected static class Filters {
+
+            protected final PolicyConfig config;
+
+            protected final DcExpiredTransformer.ExpiredFilter expired;
+
+            // NOT (lifecycle OR archived OR expired), or its form with the positive state filters
+            protected final Predicate forItarReaders;
+
+            // NOT (lifecycle OR archived OR expired OR itar)
+            protected final Predicate forOthers;
+
+            protected Filters(PolicyConfig config, DcExpiredTransformer.ExpiredFilter expired,
+                    Predicate positiveLifeCycle, Predicate positiveArchived, boolean itarRule) {
+                this.config = config;
+                this.expired = expired;
+                Expression itar = itarRule ? config.getItarRestricted() : null;
+                if (positiveLifeCycle != null && positiveArchived != null) {
+                    // lifecycle AND archived AND NOT (expired OR itar), keeping the state filters positive
+                    Expression states = new Expression(positiveLifeCycle, Operator.AND, positiveArchived);
+                    forItarReaders = new Predicate(states, Operator.AND,
+                            new Predicate(expired.expired, Operator.NOT, null));
+                    forOthers = itar == null ? forItarReaders
+                            : new Predicate(states, Operator.AND, new Predicate(
+                                    new Expression(expired.expired, Operator.OR, itar), Operator.NOT, null));
+                    return;
+                }
+                Expression lifeCycle = config.getLifeCycleRestricted();
+                Expression archived = config.getArchivedRestricted();
+                Expression restricted = new Expression(new Expression(lifeCycle, Operator.OR, archived), Operator.OR,
+                        expired.expired);
+                forItarReaders = new Predicate(restricted, Operator.NOT, null);
+                if (itar != null) {
+                    forOthers = new Predicate(new Expression(restricted, Operator.OR, itar), Operator.NOT, null);
+                } else {
+                    forOthers = forItarReaders;
+                }
+            }
+        }
+    }
+
+}
@@ -21,7 +21,12 @@ package org.nuxeo.sample;
 
 import java.security.Principal;
 import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.Set;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 
@@ -39,26 +44,83 @@ import org.nuxeo.ecm.core.query.sql.model.DateLiteral;
 import org.nuxeo.ecm.core.query.sql.model.WhereClause;
 import org.nuxeo.ecm.core.security.AbstractSecurityPolicy;
 import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.sample.DocumentFacts.Column;
 
-public class DcExpiredSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy {
+public class DcExpiredSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy, BatchSecurityPolicy {
 
     public static final String DC_EXPIRED_FIELD = "dc:expired";
 
+    // name under which the policy is measured, see PolicyMetrics
+    public static final String POLICY_NAME = "expired";
+
+    protected static final PolicyMetrics METRICS = PolicyMetrics.of(POLICY_NAME);
+
+    // checkPermission runs once per document, it compares epoch millis against a "now" refreshed in the background
+    protected final CoarseClock clock;
+
+    public DcExpiredSecurityPolicy() {
+        this(SecurityPolicyComponent.clock());
+    }
+
+    public DcExpiredSecurityPolicy(CoarseClock clock) {
+        this.clock = clock;
+    }
+
     @Override
     public Access checkPermission(Document doc, ACP mergedAcp, NuxeoPrincipal principal, String permission,
             String[] resolvedPermissions, String[] additionalPrincipals) {
     	
+        long start = System.nanoTime();
+        long now = clock.millis();
+        // the verdict doesn't depend on the principal
+        VerdictCache.Key key = VerdictCache.key(POLICY_NAME, doc, null, permission);
+        Access cached = VerdictCache.lookup(key, now);
+        if (cached != null) {
+            return METRICS.checked(start, permission, cached);
+        }
         Calendar expired = (Calendar) doc.getPropertyValue(DC_EXPIRED_FIELD);
-        Calendar now = Calendar.getInstance();
 
-        if ( expired != null ) {
-            // if value of dc:expired field is before now
-            if (expired.before(now)) {
-                // DENY access to the item
-                return Access.DENY;
+        if ( isExpired(expired, now) ) {
+            // DENY access to the item
+            return METRICS.checked(start, permission, VerdictCache.store(key, Access.DENY));
+        }
+        // not cached past the expiry, the document is denied from then on
+        long notAfter = expired == null ? VerdictCache.FOREVER : expired.getTimeInMillis();
+        return METRICS.checked(start, permission, VerdictCache.store(key, Access.UNKNOWN, notAfter));
+    }
+
+    @Override
+    public void checkPermissions(DocumentFacts docs, NuxeoPrincipal principal, Entitlements entitlements,
+            PolicyConfig config, String permission, Verdicts verdicts) {
+
+        long start = System.nanoTime();
+        // one clock read for the whole batch
+        long now = clock.millis();
+        long[] expired = docs.expired();
+        int evaluated = 0;
+        int denied = 0;
+
+        for (int i = verdicts.nextUndecided(0); i >= 0; i = verdicts.nextUndecided(i + 1)) {
+            evaluated++;
+            // DocumentFacts.NEVER when not set
+            if ( expired[i] < now ) {
+                verdicts.deny(i);
+                denied++;
             }
         }
-        return Access.UNKNOWN;
+        METRICS.batchChecked(start, permission, evaluated, 0, denied);
+    }
+
+    @Override
+    public Set<Column> getColumns() {
+        return EnumSet.of(Column.EXPIRED);
+    }
+
+    // the rule on already fetched attributes, shared with CompositeSecurityPolicy
+    public static boolean isExpired(Calendar expired, long nowMillis) {
+        // if value of dc:expired field is before now
+        return expired != null && expired.getTimeInMillis() < nowMillis;
     }
 
     @Override
@@ -75,24 +137,40 @@ public class DcExpiredSecurityPolicy extends AbstractSecurityPolicy implements S
 
         private static final long serialVersionUID = 1L;
 
-        // Expressions for two parameters, we need to check that:
-        // * dc:expired value is less than todays date
-        // * dc:expired value is not null
-        public static final Expression EXPIRED = new Expression(new Reference(DC_EXPIRED_FIELD), Operator.LT, new DateLiteral(ZonedDateTime.now(ZoneOffset.UTC))); 
+        public static final String BUCKET_PROPERTY = "org.nuxeo.sample.expired.bucketSeconds";
+
         public static final Expression DC_EXPIRED_NOT_NULL = new Expression(new Reference(DC_EXPIRED_FIELD), Operator.ISNOTNULL, null);
 
+        protected final transient Clock clock;
+
+        protected final long bucketMillis;
+
+        // the filter of the current time bucket, replaced as a whole when the clock moves to the next bucket
+        protected transient volatile ExpiredFilter filter;
+
+        public DcExpiredTransformer() {
+            this(Clock.systemUTC(), Duration.ofSeconds(Long.parseLong(Framework.getProperty(BUCKET_PROPERTY, "60"))));
+        }
+
+        public DcExpiredTransformer(Clock clock, Duration bucket) {
+            this.clock = clock;
+            bucketMillis = Math.max(1, bucket.toMillis());
+        }
+
         // A SQL Query is made whenever a document listing is shown
         // This transformer changes the SQL query so that restricted documents are not shown in results
         @Override
         public SQLQuery transform(NuxeoPrincipal principal, SQLQuery query) {
 
-            // if user is system or Admin do nothing
-            if (principal.getName().equals("system") || principal.getName().equals("Administrator")){
-                return query;
+            long start = System.nanoTime();
+
+            // if user bypasses the policies do nothing, see BypassPrincipals
+            if (Entitlements.of(principal).isUnrestricted()) {
+                return METRICS.transformed(start, principal, query);
             }
 
             WhereClause where = query.where;
-            Expression expr = new Expression(EXPIRED, Operator.AND, DC_EXPIRED_NOT_NULL);
+            Predicate notExpired = getFilter().predicate;
             Predicate predicate;
 
             // a sql query can have a WHERE clause or not have a WHERE clause
@@ -100,15 +178,47 @@ public class DcExpiredSecurityPolicy extends AbstractSecurityPolicy implements S
             // if it already has a WHERE clause we add our expressions to it
 
             if (where == null || where.predicate == null) {
-                // add WHERE NOT (dc:expired < today AND dc:expired is not null)
-                predicate = new Predicate(expr, Operator.NOT, null);
+                // add WHERE NOT (dc:expired < now AND dc:expired is not null)
+                predicate = notExpired;
             } else {
-                // add AND NOT (dc:expired < today AND dc:expired is not null) to WHERE clause
-                predicate = new Predicate(where.predicate, Operator.AND, new Predicate(expr, Operator.NOT, null));
+                // add AND NOT (dc:expired < now AND dc:expired is not null) to WHERE clause
+                predicate = new Predicate(where.predicate, Operator.AND, notExpired);
+            }
+
+            return METRICS.transformed(start, principal, new SQLQuery(query.select, query.from, new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset));
+
+        }
+
+        // "now" is truncated to the start of its time bucket, so the filter is only rebuilt once per bucket
+        // documents expiring during a bucket stay listed until the next one, checkPermission still denies them
+        protected ExpiredFilter getFilter() {
+            long bucket = clock.millis() / bucketMillis;
+            ExpiredFilter current = filter;
+            if (current == null || current.bucket != bucket) {
+                // concurrent rebuilds for the same bucket produce equal filters, last one wins
+                current = new ExpiredFilter(bucket, bucket * bucketMillis);
+                filter = current;
             }
+            return current;
+        }
 
-            return new SQLQuery(query.select, query.from, new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset);
+        protected static class ExpiredFilter {
 
+            protected final long bucket;
+
+            // dc:expired < now AND dc:expired IS NOT NULL
+            protected final Expression expired;
+
+            // NOT (dc:expired < now AND dc:expired IS NOT NULL)
+            protected final Predicate predicate;
+
+            protected ExpiredFilter(long bucket, long nowMillis) {
+                this.bucket = bucket;
+                DateLiteral now = new DateLiteral(ZonedDateTime.ofInstant(Instant.ofEpochMilli(nowMillis), ZoneOffset.UTC));
+                expired = new Expression(new Expression(new Reference(DC_EXPIRED_FIELD), Operator.LT, now), Operator.AND,
+                        DC_EXPIRED_NOT_NULL);
+                predicate = new Predicate(expired, Operator.NOT, null);
+            }
         }
     }
 
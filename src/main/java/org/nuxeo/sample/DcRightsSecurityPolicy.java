@@ -19,29 +19,25 @@
 
 package org.nuxeo.sample;
 
-import java.security.Principal;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.Set;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.api.NuxeoPrincipal;
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.Access;
 import org.nuxeo.ecm.core.model.Document;
-import org.nuxeo.ecm.core.query.sql.model.Expression;
-import org.nuxeo.ecm.core.query.sql.model.LiteralList;
 import org.nuxeo.ecm.core.query.sql.model.Operator;
 import org.nuxeo.ecm.core.query.sql.model.Predicate;
-import org.nuxeo.ecm.core.query.sql.model.Reference;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
-import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
 import org.nuxeo.ecm.core.query.sql.model.WhereClause;
 import org.nuxeo.ecm.core.security.AbstractSecurityPolicy;
 import org.nuxeo.ecm.core.security.SecurityPolicy;
-import org.nuxeo.ecm.platform.usermanager.UserManager;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.sample.DocumentFacts.Column;
 
-public class DcRightsSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy {
+public class DcRightsSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy, BatchSecurityPolicy {
 
     public static final String DC_RIGHTS_FIELD = "dc:rights";
     public static final String RIGHTS_DEFAULT = "DEFAULT";
@@ -52,13 +48,35 @@ public class DcRightsSecurityPolicy extends AbstractSecurityPolicy implements Se
     public static final String PRINCIPAL_GROUP1 = "GROUP1";
     public static final String PRINCIPAL_GROUP2 = "GROUP2";
     public static final String PRINCIPAL_GROUP3 = "GROUP3";
-    
-    private static final Log log = LogFactory.getLog(DcRightsSecurityPolicy.class);
+
+    // name under which decisions are traced and measured, see DecisionTrace and PolicyMetrics
+    public static final String POLICY_NAME = "rights";
+
+    protected static final PolicyMetrics METRICS = PolicyMetrics.of(POLICY_NAME);
+
+    // whether the mapping is projected into the documents ACLs, which then decide instead of this policy, null to
+    // follow the reloadable configuration, see RightsAcl
+    protected final Boolean aclProjection;
+
+    public DcRightsSecurityPolicy() {
+        this(null);
+    }
+
+    public DcRightsSecurityPolicy(Boolean aclProjection) {
+        this.aclProjection = aclProjection;
+    }
+
+    protected boolean isAclProjection() {
+        return aclProjection != null ? aclProjection.booleanValue() : RightsAcl.isEnabled();
+    }
 
     @Override
     public Access checkPermission(Document doc, ACP mergedAcp, NuxeoPrincipal principal, String permission,
             String[] resolvedPermissions, String[] additionalPrincipals) {
-    	NuxeoPrincipal p = (NuxeoPrincipal) principal;
+        long start = System.nanoTime();
+        if (isAclProjection()) {
+            return METRICS.checked(start, permission, Access.UNKNOWN);
+        }
     	/*
  *  If the document has the dc:rights value below 
  *  AND the principal is in the corresponding group
@@ -75,53 +93,69 @@ public class DcRightsSecurityPolicy extends AbstractSecurityPolicy implements Se
         *          GROUP3              *             GROUP3              *
         ******************************************************************
 */
+        Entitlements entitlements = Entitlements.of(principal);
+        // shared by the principals with the same entitlements
+        VerdictCache.Key key = VerdictCache.key(POLICY_NAME, doc, entitlements, permission);
+        Access cached = VerdictCache.lookup(key);
+        if (cached != null) {
+            return METRICS.checked(start, permission, DecisionTrace.trace(POLICY_NAME, principal, doc, cached));
+        }
+
         String rights = (String) doc.getPropertyValue(DC_RIGHTS_FIELD);
 
         if ( rights != null ) {
-            
-        	if (rights.equals(RIGHTS_DEFAULT)) {
-        		if (p.isMemberOf(PRINCIPAL_GROUP1)) {
-        			log.trace(String.format("Returning access %s for user %s on document %s", Access.GRANT, p, doc));
-        			return Access.GRANT;
-        		} else {
-        			log.trace(String.format("Returning access %s for user %s on document %s", Access.DENY, p, doc));
-        			return Access.DENY;
-        		}           
-        	} 
-            
-            if (rights.equals(RIGHTS_GROUP1)) {
-        		if (p.isMemberOf(PRINCIPAL_GROUP1)) {
-        			log.trace(String.format("Returning access %s for user %s on document %s", Access.GRANT, p, doc));
-        			return Access.GRANT;
-        		} else {
-        			log.trace(String.format("Returning access %s for user %s on document %s", Access.DENY, p, doc));
-        			return Access.DENY;
-        		}            	
-            }
-            if (rights.equals(RIGHTS_GROUP2)) {
-        		if (p.isMemberOf(PRINCIPAL_GROUP2)) {
-        			log.trace(String.format("Returning access %s for user %s on document %s", Access.GRANT, p, doc));
-        			return Access.GRANT;
-        		} else {
-        			log.trace(String.format("Returning access %s for user %s on document %s", Access.DENY, p, doc));
-        			return Access.DENY;
-        		}           
-            }
-            if (rights.equals(RIGHTS_GROUP3)) {
-        		if (p.isMemberOf(PRINCIPAL_GROUP3)) {
-        			log.trace(String.format("Returning access %s for user %s on document %s", Access.GRANT, p, doc));
-        			return Access.GRANT;
-        		} else {
-        			log.trace(String.format("Returning access %s for user %s on document %s", Access.DENY, p, doc));
-        			return Access.DENY;
-        		}           
-            }
+            // the mapping above is the default one, it is contributed through the rightsMappings extension point
+            // UNKNOWN if the value is not mapped, else GRANT if the principal is in one of its groups, DENY otherwise
+            BitSet groups = entitlements.getRightsGroups();
+            Access access = VerdictCache.store(key, entitlements.config().getRights().decide(rights, groups));
+            return METRICS.checked(start, permission, DecisionTrace.trace(POLICY_NAME, principal, doc, access));
         }
-		log.trace(String.format("Returning access %s for user %s on document %s", Access.UNKNOWN, p, doc));
-        return Access.UNKNOWN;
+        Access access = VerdictCache.store(key, Access.UNKNOWN);
+        return METRICS.checked(start, permission, DecisionTrace.trace(POLICY_NAME, principal, doc, access));
         
     }
 
+    @Override
+    public void checkPermissions(DocumentFacts docs, NuxeoPrincipal principal, Entitlements entitlements,
+            PolicyConfig config, String permission, Verdicts verdicts) {
+
+        long start = System.nanoTime();
+        if (aclProjection != null ? aclProjection.booleanValue() : config.isRightsAclProjection()) {
+            METRICS.batchChecked(start, permission, 0, 0, 0);
+            return;
+        }
+        // the principal groups were resolved once for the batch, with the table they are indexed on
+        RightsTable table = config.getRights();
+        BitSet groups = entitlements.getRightsGroups();
+        String[] rights = docs.rights();
+        int evaluated = 0;
+        int granted = 0;
+        int denied = 0;
+
+        for (int i = verdicts.nextUndecided(0); i >= 0; i = verdicts.nextUndecided(i + 1)) {
+            evaluated++;
+            if ( rights[i] != null ) {
+                Access access = DecisionTrace.trace(POLICY_NAME, principal, docs.get(i), table.decide(rights[i], groups));
+                if (access == Access.GRANT) {
+                    verdicts.grant(i);
+                    granted++;
+                } else if (access == Access.DENY) {
+                    verdicts.deny(i);
+                    denied++;
+                }
+            }
+        }
+        METRICS.batchChecked(start, permission, evaluated, granted, denied);
+    }
+
+    @Override
+    public Set<Column> getColumns() {
+        if (isAclProjection()) {
+            return EnumSet.noneOf(Column.class);
+        }
+        return EnumSet.of(Column.RIGHTS);
+    }
+
     @Override
     public boolean isRestrictingPermission(String permission) {
         return false;
@@ -136,61 +170,64 @@ public class DcRightsSecurityPolicy extends AbstractSecurityPolicy implements Se
 
         private static final long serialVersionUID = 1L;
 
+        public static final String QUERY_CACHE_SIZE_PROPERTY = "org.nuxeo.sample.rights.queryCache.maxSize";
+
+        // optional, a size of 0 (the default) disables it
+        protected final transient TransformedQueryCache queryCache;
+
+        public DcRightsTransformer() {
+            this(Long.parseLong(Framework.getProperty(QUERY_CACHE_SIZE_PROPERTY, "0")));
+        }
+
+        public DcRightsTransformer(long queryCacheSize) {
+            queryCache = queryCacheSize > 0 ? new TransformedQueryCache(queryCacheSize) : null;
+        }
+
         // A SQL Query is made whenever a document listing is shown
         // This transformer changes the SQL query so that restricted documents are not shown in results
         @Override
         public SQLQuery transform(NuxeoPrincipal principal, SQLQuery query) {
         	
-        	UserManager userManager = Framework.getService(UserManager.class);
-        	// cannot get groups from incoming principal object, need to fetch a NuxeoPrincipalImpl from user manager
-        	NuxeoPrincipal p = userManager.getPrincipal(principal.getName());
-        	
-            WhereClause where = query.where;
-            Predicate predicate = null;
-            
-            // if user is system or Admin do nothing
-            if (principal.getName().equals("system") || principal.getName().equals("Administrator")){
-                return query;
+            long start = System.nanoTime();
+
+            // group membership is resolved from the UserManager and cached per principal name, see Entitlements
+            Entitlements entitlements = Entitlements.of(principal);
+
+            // if user bypasses the policies do nothing
+            if (entitlements.isUnrestricted()) {
+                return METRICS.transformed(start, principal, query);
+            }
+
+            RightsTable table = entitlements.config().getRights();
+            BitSet groups = entitlements.getRightsGroups();
+
+            // dc:rights IS NULL OR dc:rights IN (every value mapped to one of the principal groups)
+            // the filter is built once per group combination and shared by all queries
+            Predicate filter = table.filterFor(groups);
+            if (filter == null) {
+                return METRICS.transformed(start, principal, query);
             }
-            
-        	// if principal in group 1 return query checking if field = default
-        	if (p.isMemberOf(PRINCIPAL_GROUP1)) {
-        		// AND (dc:rights IS NULL OR dc:rights IN ('DEFAULT','GROUP1'))
-        		Expression expr = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.ISNULL, null);
-                LiteralList list = new LiteralList();
-                list.add(new StringLiteral(RIGHTS_DEFAULT));
-                list.add(new StringLiteral(RIGHTS_GROUP1));
-        		Expression expr2 = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.IN, list);
-        		predicate = new Predicate(expr, Operator.OR, expr2);
-        	}       	
-        	// if principal in group 2 return query checking if field = group2
-        	else if (p.isMemberOf(PRINCIPAL_GROUP2)) {
-        		// AND (dc:rights IS NULL OR dc:rights = 'GROUP2')
-        		Expression expr = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.ISNULL, null);
-        		Expression expr2 = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.EQ, new StringLiteral(RIGHTS_GROUP2));
-        		predicate = new Predicate(expr, Operator.OR, expr2);
-        	}
-        	// if principal in group 3 return query checking if field = group3
-        	else if (p.isMemberOf(PRINCIPAL_GROUP3)) {
-        		// AND (dc:rights IS NULL OR dc:rights = 'GROUP3')
-        		Expression expr = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.ISNULL, null);
-        		Expression expr2 = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.EQ, new StringLiteral(RIGHTS_GROUP3));
-        		predicate = new Predicate(expr, Operator.OR, expr2);
-        	} 
-        	else {
-        		return query;
-        	}
+
+            if (queryCache != null) {
+                return METRICS.transformed(start, principal, queryCache.get(filter, query, q -> addFilter(q, filter)));
+            }
+            return METRICS.transformed(start, principal, addFilter(query, filter));
+        }
+
+        protected SQLQuery addFilter(SQLQuery query, Predicate filter) {
+            WhereClause where = query.where;
+            Predicate predicate;
 
             // a sql query can have a WHERE clause or not have a WHERE clause
             // if it does not have a WHERE clause we add our new predicate using WHERE
             // if it already has a WHERE clause we add our predicate to it
 
             if (where == null || where.predicate == null) {
-                return new SQLQuery(query.select, query.from, new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset);
+                predicate = filter;
             } else {
-            	predicate = new Predicate(where.predicate, Operator.AND, predicate);
-                return new SQLQuery(query.select, query.from, new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset);
+                predicate = new Predicate(where.predicate, Operator.AND, filter);
             }
+            return new SQLQuery(query.select, query.from, new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset);
         }
     }
 
@@ -198,7 +235,8 @@ public class DcRightsSecurityPolicy extends AbstractSecurityPolicy implements Se
 
     @Override
     public Transformer getQueryTransformer(String repositoryName) {
-        return DC_RIGHTS_TRANSFORMER;
+        // the read ACLs already filter the listings
+        return isAclProjection() ? Transformer.IDENTITY : DC_RIGHTS_TRANSFORMER;
     }
 
 }
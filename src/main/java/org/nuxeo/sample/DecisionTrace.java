@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.StringMapMessage;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Traces the decisions of the security policies as structured fields: policy, principal, document and access.
+ * <p>
+ * Nothing is built unless the {@code org.nuxeo.sample.DecisionTrace} logger is at TRACE, or the principal is the one
+ * being sampled. Sampling lets us debug the access problems of a single user in production: {@link #sample} logs a
+ * fraction of that user's decisions at INFO, whatever the logger level, until {@link #stopSampling} is called. The
+ * sampled user is read from the {@value #SAMPLE_USER_PROPERTY} and {@value #SAMPLE_RATIO_PROPERTY} properties when
+ * {@link SecurityPolicyComponent#reload()} runs, so that it can be changed without a restart.
+ */
+public final class DecisionTrace {
+
+    public static final String SAMPLE_USER_PROPERTY = "org.nuxeo.sample.trace.sampleUser";
+
+    public static final String SAMPLE_RATIO_PROPERTY = "org.nuxeo.sample.trace.sampleRatio";
+
+    private static final Logger log = LogManager.getLogger(DecisionTrace.class);
+
+    // read on every decision, both replaced together by sample/stopSampling
+    private static volatile Sampling sampling;
+
+    private DecisionTrace() {
+    }
+
+    /**
+     * Traces the decision and returns it, so that policies can write {@code return DecisionTrace.trace(...)}.
+     */
+    public static Access trace(String policy, NuxeoPrincipal principal, Document doc, Access access) {
+        if (log.isTraceEnabled()) {
+            log.trace(message(policy, principal, doc, access));
+        } else {
+            Sampling s = sampling;
+            if (s != null && s.matches(principal)) {
+                log.log(Level.INFO, message(policy, principal, doc, access));
+            }
+        }
+        return access;
+    }
+
+    /**
+     * Starts logging the given ratio (0 to 1) of the decisions made for this user.
+     */
+    public static void sample(String username, double ratio) {
+        sampling = new Sampling(username, ratio);
+    }
+
+    public static void stopSampling() {
+        sampling = null;
+    }
+
+    /**
+     * Samples the user named by the {@value #SAMPLE_USER_PROPERTY} property, with the {@value #SAMPLE_RATIO_PROPERTY}
+     * ratio (all the decisions by default), or stops sampling when it is not set.
+     */
+    public static void sampleFromProperties() {
+        String username = Framework.getProperty(SAMPLE_USER_PROPERTY);
+        if (username == null || username.isBlank()) {
+            stopSampling();
+        } else {
+            sample(username.trim(), Double.parseDouble(Framework.getProperty(SAMPLE_RATIO_PROPERTY, "1")));
+        }
+    }
+
+    private static StringMapMessage message(String policy, NuxeoPrincipal principal, Document doc, Access access) {
+        return new StringMapMessage().with("policy", policy)
+                                     .with("principal", principal.getName())
+                                     .with("document", doc.getUUID())
+                                     .with("access", access.name());
+    }
+
+    private static final class Sampling {
+
+        private final String username;
+
+        private final double ratio;
+
+        private Sampling(String username, double ratio) {
+            this.username = username;
+            this.ratio = ratio;
+        }
+
+        private boolean matches(NuxeoPrincipal principal) {
+            return username.equals(principal.getName())
+                    && (ratio >= 1 || ThreadLocalRandom.current().nextDouble() < ratio);
+        }
+    }
+
+}
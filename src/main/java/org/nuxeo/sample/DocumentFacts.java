@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import static org.nuxeo.sample.DcExpiredSecurityPolicy.DC_EXPIRED_FIELD;
+import static org.nuxeo.sample.DcRightsSecurityPolicy.DC_RIGHTS_FIELD;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.model.Session;
+
+/**
+ * The attributes the sample policies decide on, for a batch of documents, read once and shared by the policies.
+ * <p>
+ * Each attribute is a column read from all the documents the first time a policy asks for it, so that a batch only
+ * reads what its policies need. {@link #prefetch(Set)} reads the property columns the policies declare with one
+ * {@link Document#readPrefetch} per document instead of one property read per column. Not thread safe: reading a
+ * column goes through the session of the documents, so {@link #prefetch} the columns the policies declare on the
+ * session thread before handing {@link #slice}s to other threads.
+ */
+public class DocumentFacts {
+
+    public enum Column {
+        TYPE, LIFECYCLE_STATE, EXPIRED, RIGHTS, ITAR, ITAR_RESTRICTED
+    }
+
+    private static final Log log = LogFactory.getLog(DocumentFacts.class);
+
+    // dc:expired of the documents without one, never before now
+    public static final long NEVER = Long.MAX_VALUE;
+
+    protected final List<Document> docs;
+
+    protected String[] types;
+
+    protected String[] lifeCycleStates;
+
+    protected long[] expired;
+
+    protected String[] rights;
+
+    protected String[] itar;
+
+    protected boolean[] itarRestricted;
+
+    protected DocumentFacts(List<Document> docs) {
+        this.docs = docs;
+    }
+
+    public static DocumentFacts of(List<Document> docs) {
+        return new DocumentFacts(docs);
+    }
+
+    /**
+     * Loads the documents in bulk, the repository fetching their rows in a few queries instead of one per document.
+     */
+    public static DocumentFacts load(Session session, List<String> ids) {
+        return new DocumentFacts(session.getDocumentsById(ids));
+    }
+
+    public int size() {
+        return docs.size();
+    }
+
+    public Document get(int index) {
+        return docs.get(index);
+    }
+
+    public List<Document> getDocuments() {
+        return docs;
+    }
+
+    public String[] types() {
+        if (types == null) {
+            String[] column = new String[docs.size()];
+            for (int i = 0; i < column.length; i++) {
+                column[i] = docs.get(i).getType().getName();
+            }
+            types = column;
+        }
+        return types;
+    }
+
+    public String[] lifeCycleStates() {
+        if (lifeCycleStates == null) {
+            String[] column = new String[docs.size()];
+            for (int i = 0; i < column.length; i++) {
+                column[i] = docs.get(i).getLifeCycleState();
+            }
+            lifeCycleStates = column;
+        }
+        return lifeCycleStates;
+    }
+
+    /**
+     * dc:expired as epoch millis, {@link #NEVER} when not set.
+     */
+    public long[] expired() {
+        if (expired == null) {
+            long[] column = new long[docs.size()];
+            for (int i = 0; i < column.length; i++) {
+                Calendar value = (Calendar) docs.get(i).getPropertyValue(DC_EXPIRED_FIELD);
+                column[i] = value == null ? NEVER : value.getTimeInMillis();
+            }
+            expired = column;
+        }
+        return expired;
+    }
+
+    public String[] rights() {
+        if (rights == null) {
+            String[] column = new String[docs.size()];
+            for (int i = 0; i < column.length; i++) {
+                column[i] = (String) docs.get(i).getPropertyValue(DC_RIGHTS_FIELD);
+            }
+            rights = column;
+        }
+        return rights;
+    }
+
+    /**
+     * The ITAR value of the Files and their subtypes, {@code null} for other types or when it can't be read.
+     */
+    public String[] itar() {
+        if (itar == null) {
+            String[] types = types();
+            String[] column = new String[docs.size()];
+            PolicyConfig config = PolicyConfig.current();
+            String itarField = config.getItarField();
+            boolean logged = false;
+            for (int i = 0; i < column.length; i++) {
+                if (config.isFile(types[i])) {
+                    try {
+                        column[i] = (String) docs.get(i).getPropertyValue(itarField);
+                    } catch (Exception e) {
+                        // usually the ITAR schema not being deployed, once per batch is enough
+                        if (!logged) {
+                            log.error(e.toString());
+                            logged = true;
+                        }
+                    }
+                }
+            }
+            itar = column;
+        }
+        return itar;
+    }
+
+    /**
+     * Whether the documents carry the {@value ItarRestriction#FACET} facet.
+     */
+    public boolean[] itarRestricted() {
+        if (itarRestricted == null) {
+            boolean[] column = new boolean[docs.size()];
+            for (int i = 0; i < column.length; i++) {
+                column[i] = docs.get(i).hasFacet(ItarRestriction.FACET);
+            }
+            itarRestricted = column;
+        }
+        return itarRestricted;
+    }
+
+    /**
+     * Reads all the columns now.
+     */
+    public DocumentFacts prefetch() {
+        return prefetch(EnumSet.allOf(Column.class));
+    }
+
+    /**
+     * Reads the given columns now, the properties of a document in a single read.
+     */
+    public DocumentFacts prefetch(Set<Column> columns) {
+        readProperties(columns.contains(Column.EXPIRED) && expired == null,
+                columns.contains(Column.RIGHTS) && rights == null, columns.contains(Column.ITAR) && itar == null);
+        for (Column column : columns) {
+            switch (column) {
+            case TYPE:
+                types();
+                break;
+            case LIFECYCLE_STATE:
+                lifeCycleStates();
+                break;
+            case EXPIRED:
+                expired();
+                break;
+            case RIGHTS:
+                rights();
+                break;
+            case ITAR:
+                itar();
+                break;
+            case ITAR_RESTRICTED:
+                itarRestricted();
+                break;
+            }
+        }
+        return this;
+    }
+
+    // fills the requested property columns from one readPrefetch per document, a single column is left to its method
+    protected void readProperties(boolean readExpired, boolean readRights, boolean readItar) {
+        if ((readExpired ? 1 : 0) + (readRights ? 1 : 0) + (readItar ? 1 : 0) < 2) {
+            return;
+        }
+        PolicyConfig config = PolicyConfig.current();
+        String itarField = config.getItarField();
+        Set<String> xpaths = new HashSet<>();
+        if (readExpired) {
+            xpaths.add(DC_EXPIRED_FIELD);
+        }
+        if (readRights) {
+            xpaths.add(DC_RIGHTS_FIELD);
+        }
+        // only Files and their subtypes have an ITAR value
+        Set<String> fileXPaths = xpaths;
+        if (readItar) {
+            fileXPaths = new HashSet<>(xpaths);
+            fileXPaths.add(itarField);
+        }
+        String[] types = readItar ? types() : null;
+        long[] expiredColumn = readExpired ? new long[docs.size()] : null;
+        String[] rightsColumn = readRights ? new String[docs.size()] : null;
+        String[] itarColumn = readItar ? new String[docs.size()] : null;
+        boolean logged = false;
+        for (int i = 0; i < docs.size(); i++) {
+            Document doc = docs.get(i);
+            boolean file = readItar && config.isFile(types[i]);
+            Map<String, Serializable> values;
+            try {
+                values = doc.readPrefetch(doc.getType(), file ? fileXPaths : xpaths);
+            } catch (RuntimeException e) {
+                if (!file) {
+                    throw e;
+                }
+                // usually the ITAR schema not being deployed, once per batch is enough
+                if (!logged) {
+                    log.error(e.toString());
+                    logged = true;
+                }
+                values = xpaths.isEmpty() ? Map.of() : doc.readPrefetch(doc.getType(), xpaths);
+            }
+            if (readExpired) {
+                Calendar value = (Calendar) values.get(DC_EXPIRED_FIELD);
+                expiredColumn[i] = value == null ? NEVER : value.getTimeInMillis();
+            }
+            if (readRights) {
+                rightsColumn[i] = (String) values.get(DC_RIGHTS_FIELD);
+            }
+            if (file) {
+                itarColumn[i] = (String) values.get(itarField);
+            }
+        }
+        expired = expiredColumn == null ? expired : expiredColumn;
+        rights = rightsColumn == null ? rights : rightsColumn;
+        itar = itarColumn == null ? itar : itarColumn;
+    }
+
+    /**
+     * Returns the facts of the documents from {@code from} included to {@code to} excluded, with the columns read so
+     * far. Only those columns can be used from another thread.
+     */
+    public DocumentFacts slice(int from, int to) {
+        DocumentFacts slice = new DocumentFacts(docs.subList(from, to));
+        slice.types = types == null ? null : Arrays.copyOfRange(types, from, to);
+        slice.lifeCycleStates = lifeCycleStates == null ? null : Arrays.copyOfRange(lifeCycleStates, from, to);
+        slice.expired = expired == null ? null : Arrays.copyOfRange(expired, from, to);
+        slice.rights = rights == null ? null : Arrays.copyOfRange(rights, from, to);
+        slice.itar = itar == null ? null : Arrays.copyOfRange(itar, from, to);
+        slice.itarRestricted = itarRestricted == null ? null : Arrays.copyOfRange(itarRestricted, from, to);
+        return slice;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.BitSet;
+import java.util.Objects;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.SystemPrincipal;
+
+/**
+ * What a principal is entitled to, as far as the sample policies are concerned: whether it bypasses them (see
+ * {@link BypassPrincipals}), whether it may read ITAR documents, its rights groups as indexed by the
+ * {@link RightsTable} and the rule exemption groups as indexed by the {@link RuleSet}.
+ * <p>
+ * The snapshot is computed on the first check or query of a user and cached until the user or one of the groups
+ * changes, see {@link EntitlementsCache}. The policies and transformers then test a flag or a bit instead of scanning
+ * the principal groups.
+ */
+public final class Entitlements {
+
+    public static final EntitlementsCache CACHE = new EntitlementsCache();
+
+    // the system principal bypasses the policies whatever the configuration, it is never looked up
+    public static final Entitlements SYSTEM = new Entitlements(true, true, RightsTable.NO_GROUPS,
+            RightsTable.NO_GROUPS, null);
+
+    private final boolean unrestricted;
+
+    private final boolean itarReader;
+
+    private final BitSet rightsGroups;
+
+    private final BitSet ruleGroups;
+
+    // the configuration the entitlements were computed on, the group bitsets are indexed on its table and rules
+    final PolicyConfig config;
+
+    private Entitlements(boolean unrestricted, boolean itarReader, BitSet rightsGroups, BitSet ruleGroups,
+            PolicyConfig config) {
+        this.unrestricted = unrestricted;
+        this.itarReader = itarReader;
+        this.rightsGroups = rightsGroups;
+        this.ruleGroups = ruleGroups;
+        this.config = config;
+    }
+
+    // the configuration to read the rights table and rules from, the group bitsets are only meaningful on the one they
+    // were computed on, which may already have been replaced by a reload
+    PolicyConfig config() {
+        return config != null ? config : PolicyConfig.current();
+    }
+
+    /**
+     * Returns the entitlements of the principal, read from the groups of the user as known to the {@code UserManager}
+     * on a cache miss, whatever groups the incoming principal carries, see {@link EntitlementsCache#resolve}.
+     */
+    public static Entitlements of(NuxeoPrincipal principal) {
+        if (principal instanceof SystemPrincipal) {
+            return SYSTEM;
+        }
+        return CACHE.get(principal);
+    }
+
+    /**
+     * Computes the entitlements, {@code resolved} is the principal holding the groups, {@code null} if unknown.
+     */
+    public static Entitlements compute(String principalName, NuxeoPrincipal resolved, PolicyConfig config) {
+        boolean unrestricted = config.getBypass().matches(principalName, resolved);
+        if (resolved == null) {
+            return new Entitlements(unrestricted, false, RightsTable.NO_GROUPS, RightsTable.NO_GROUPS, config);
+        }
+        return new Entitlements(unrestricted, resolved.isMemberOf(config.getItarReadersGroup()),
+                config.getRights().groupsOf(resolved), config.getRules().groupsOf(resolved), config);
+    }
+
+    /**
+     * Whether the policies query transformers leave the queries of this principal unfiltered.
+     */
+    public boolean isUnrestricted() {
+        return unrestricted;
+    }
+
+    public boolean isItarReader() {
+        return itarReader;
+    }
+
+    /**
+     * The mapped groups of the principal, shared and must not be modified.
+     */
+    public BitSet getRightsGroups() {
+        return rightsGroups;
+    }
+
+    /**
+     * The rule exemption groups of the principal, shared and must not be modified.
+     */
+    public BitSet getRuleGroups() {
+        return ruleGroups;
+    }
+
+    // equal for the principals entitled to the same, so that they share cached verdicts, see VerdictCache
+    @Override
+    public int hashCode() {
+        return Objects.hash(Boolean.valueOf(unrestricted), Boolean.valueOf(itarReader), rightsGroups, ruleGroups);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Entitlements)) {
+            return false;
+        }
+        Entitlements other = (Entitlements) obj;
+        return unrestricted == other.unrestricted && itarReader == other.itarReader && config == other.config
+                && rightsGroups.equals(other.rightsGroups)
+                && ruleGroups.equals(other.ruleGroups);
+    }
+
+}
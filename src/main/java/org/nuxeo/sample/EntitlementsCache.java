@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+import io.dropwizard.metrics5.Timer;
+
+/**
+ * Bounded cache of the {@link Entitlements} of a principal, keyed by principal name.
+ * <p>
+ * Resolving the groups of a user goes to the user directory (LDAP, SQL...), doing it for every listing is what this
+ * cache avoids. Entries expire after a TTL and the least recently used ones are evicted past the maximum size, user and
+ * group changes invalidate them through {@link EntitlementsInvalidator}. An entry computed on another
+ * {@link PolicyConfig} than the current one is recomputed.
+ */
+public class EntitlementsCache {
+
+    public static final String MAX_SIZE_PROPERTY = "org.nuxeo.sample.entitlements.cache.maxSize";
+
+    public static final String TTL_PROPERTY = "org.nuxeo.sample.entitlements.cache.ttlSeconds";
+
+    protected final Cache<String, Entitlements> cache;
+
+    protected final Counter hits;
+
+    protected final Counter misses;
+
+    protected final Timer loads;
+
+    public EntitlementsCache() {
+        this(Long.parseLong(Framework.getProperty(MAX_SIZE_PROPERTY, "10000")),
+                Long.parseLong(Framework.getProperty(TTL_PROPERTY, "300")));
+    }
+
+    public EntitlementsCache(long maxSize, long ttlSeconds) {
+        cache = CacheBuilder.newBuilder()
+                            .maximumSize(maxSize)
+                            .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                            .build();
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        MetricName name = MetricName.build("nuxeo", "securitypolicy", "entitlements", "cache");
+        hits = registry.counter(name.resolve("hit"));
+        misses = registry.counter(name.resolve("miss"));
+        loads = registry.timer(name.resolve("load"));
+    }
+
+    /**
+     * Returns the entitlements of the principal, computed on a miss from the principal given by {@link #resolve}.
+     */
+    public Entitlements get(NuxeoPrincipal principal) {
+        String principalName = principal.getName();
+        PolicyConfig config = PolicyConfig.current();
+        Entitlements entitlements = cache.getIfPresent(principalName);
+        if (entitlements != null && entitlements.config == config) {
+            hits.inc();
+            return entitlements;
+        }
+        misses.inc();
+        long start = System.nanoTime();
+        entitlements = Entitlements.compute(principalName, resolve(principal), config);
+        loads.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        cache.put(principalName, entitlements);
+        return entitlements;
+    }
+
+    /**
+     * Returns the principal whose groups are read. The entry is shared by all the callers of a principal name, so the
+     * groups always come from the {@code UserManager}, the incoming principal may not carry them. The principal itself
+     * is used for the users unknown to the directory, or without a {@code UserManager}.
+     */
+    protected NuxeoPrincipal resolve(NuxeoPrincipal principal) {
+        UserManager userManager = Framework.isInitialized() ? Framework.getService(UserManager.class) : null;
+        NuxeoPrincipal resolved = userManager == null ? null : userManager.getPrincipal(principal.getName());
+        return resolved != null ? resolved : principal;
+    }
+
+    public void invalidate(String principalName) {
+        cache.invalidate(principalName);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import org.nuxeo.ecm.platform.usermanager.UserManagerImpl;
+import org.nuxeo.runtime.services.event.Event;
+import org.nuxeo.runtime.services.event.EventListener;
+
+/**
+ * Listens to the user manager events to drop the cached {@link Entitlements} of users whose membership may have changed.
+ */
+public class EntitlementsInvalidator implements EventListener {
+
+    @Override
+    public void handleEvent(Event event) {
+        String id = event.getId();
+        // deletions and creations are also notified as user_changed/group_changed on the runtime topic
+        if (UserManagerImpl.USERCHANGED_EVENT_ID.equals(id)) {
+            // the event data is the user name
+            Entitlements.CACHE.invalidate((String) event.getData());
+        } else if (UserManagerImpl.GROUPCHANGED_EVENT_ID.equals(id)) {
+            // we don't know the members of the group without another directory lookup, drop everything
+            Entitlements.CACHE.invalidateAll();
+        }
+    }
+
+}
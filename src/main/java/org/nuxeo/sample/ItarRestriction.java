@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.ecm.core.schema.types.Field;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * The ITAR restriction denormalized as the {@value #FACET} facet, set on the Files (subtypes included) whose ITAR value
+ * is Yes.
+ * <p>
+ * {@link ItarRestrictionListener} keeps the facet up to date on creation and modification, and
+ * {@link ItarRestrictionBackfillWork} sets it on the existing documents. Once the backfill is done, setting the
+ * {@value #ENABLED_PROPERTY} property makes the ITAR policy test the facet instead of reading the type and ITAR value,
+ * and its query filter becomes {@code ecm:mixinType <> 'RestrictedItar'}.
+ */
+public final class ItarRestriction {
+
+    public static final String FACET = "RestrictedItar";
+
+    public static final String ENABLED_PROPERTY = "org.nuxeo.sample.itar.restrictionFacet";
+
+    // same documents as PolicyConfig.getNotItar, one test on the facet instead of three conditions
+    public static final Predicate NOT_RESTRICTED = new Predicate(new Reference("ecm:mixinType"), Operator.NOTEQ,
+            new StringLiteral(FACET));
+
+    private ItarRestriction() {
+    }
+
+    public static boolean isEnabled() {
+        return Framework.isBooleanPropertyTrue(ENABLED_PROPERTY);
+    }
+
+    /**
+     * The rule of the ITAR policy, on the type and ITAR value of a document.
+     */
+    public static boolean isRestricted(String type, String itar) {
+        return PolicyConfig.current().isFile(type) && NoItarSecurityPolicy.isItar(itar);
+    }
+
+    /**
+     * Adds or removes the facet so that it matches the rule, returns {@code true} if the document was changed. Does
+     * nothing on proxies and on documents without the ITAR schema.
+     */
+    public static boolean update(DocumentModel doc) {
+        if (doc.isProxy() || !hasItarSchema(doc)) {
+            return false;
+        }
+        String itarField = PolicyConfig.current().getItarField();
+        boolean restricted = isRestricted(doc.getType(), (String) doc.getPropertyValue(itarField));
+        if (restricted == doc.hasFacet(FACET)) {
+            return false;
+        }
+        return restricted ? doc.addFacet(FACET) : doc.removeFacet(FACET);
+    }
+
+    protected static boolean hasItarSchema(DocumentModel doc) {
+        Field field = Framework.getService(SchemaManager.class).getField(PolicyConfig.current().getItarField());
+        return field != null && doc.hasSchema(field.getDeclaringType().getName());
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.versioning.VersioningService;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Sets the {@value ItarRestriction#FACET} facet on the existing Files of a repository, for the documents created
+ * before {@link ItarRestrictionListener} was deployed.
+ * <p>
+ * Runs in batches of {@value #BATCH_SIZE_PROPERTY} with a {@value #PAUSE_PROPERTY} pause between them and resumes where
+ * it stopped, see {@link ResumableBackfillWork}.
+ */
+public class ItarRestrictionBackfillWork extends ResumableBackfillWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String PREFIX = "org.nuxeo.sample.itar.backfill";
+
+    public static final String BATCH_SIZE_PROPERTY = PREFIX + ".batchSize";
+
+    public static final String PAUSE_PROPERTY = PREFIX + ".pauseMillis";
+
+    // FROM File includes the subtypes, which the ITAR rule applies to
+    protected static final String QUERY = "SELECT ecm:uuid FROM File WHERE ecm:isProxy = 0%s ORDER BY ecm:uuid";
+
+    // context data of listeners this bundle doesn't depend on, the facet is not an edit of the document
+    protected static final String DISABLE_DUBLINCORE_LISTENER = "disableDublinCoreListener";
+
+    protected static final String DISABLE_AUDIT_LOGGER = "disableAuditLogger";
+
+    public ItarRestrictionBackfillWork(String repositoryName) {
+        super(PREFIX, repositoryName);
+    }
+
+    /**
+     * Schedules the backfill of the repository, unless it is already scheduled or running.
+     */
+    public static void schedule(String repositoryName) {
+        Framework.getService(WorkManager.class)
+                 .schedule(new ItarRestrictionBackfillWork(repositoryName),
+                         WorkManager.Scheduling.IF_NOT_RUNNING_OR_SCHEDULED);
+    }
+
+    @Override
+    public String getTitle() {
+        return "ITAR restriction backfill " + repositoryName;
+    }
+
+    @Override
+    protected String getQuery() {
+        return QUERY;
+    }
+
+    @Override
+    protected boolean update(DocumentModel doc) {
+        if (!ItarRestriction.update(doc)) {
+            return false;
+        }
+        doc.putContextData(VersioningService.DISABLE_AUTO_CHECKOUT, Boolean.TRUE);
+        doc.putContextData(CoreSession.ALLOW_VERSION_WRITE, Boolean.TRUE);
+        doc.putContextData(DISABLE_DUBLINCORE_LISTENER, Boolean.TRUE);
+        doc.putContextData(DISABLE_AUDIT_LOGGER, Boolean.TRUE);
+        session.saveDocument(doc);
+        return true;
+    }
+
+}
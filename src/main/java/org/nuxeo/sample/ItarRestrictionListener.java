@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+
+/**
+ * Sets or removes the {@value ItarRestriction#FACET} facet before a document is created or saved, in the same
+ * transaction, so that the facet never disagrees with the ITAR value.
+ */
+public class ItarRestrictionListener implements EventListener {
+
+    @Override
+    public void handleEvent(Event event) {
+        String name = event.getName();
+        if (!DocumentEventTypes.ABOUT_TO_CREATE.equals(name) && !DocumentEventTypes.BEFORE_DOC_UPDATE.equals(name)) {
+            return;
+        }
+        EventContext context = event.getContext();
+        if (context instanceof DocumentEventContext) {
+            ItarRestriction.update(((DocumentEventContext) context).getSourceDocument());
+        }
+    }
+
+}
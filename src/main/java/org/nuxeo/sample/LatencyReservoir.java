@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+
+package org.nuxeo.sample;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.dropwizard.metrics5.Reservoir;
+import io.dropwizard.metrics5.Snapshot;
+
+/**
+ * A {@link Reservoir} of latencies counted in log-linear buckets of {@link LongAdder}s.
+ * <p>
+ * An update is a few shifts and a striped increment: it neither allocates nor locks, unlike the sampling reservoirs
+ * which allocate a sample per update and lock to rescale or slide. Each power of two is split in
+ * {@value #SUB_COUNT} buckets, a value is reported as the middle of its bucket, within 1/16 of the real one.
+ * <p>
+ * Like an HdrHistogram {@code Recorder}, each snapshot holds the values recorded since the previous one, so that the
+ * reported percentiles follow the current latencies.
+ */
+public class LatencyReservoir implements Reservoir {
+
+    protected static final int SUB_BITS = 3;
+
+    protected static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // the values below SUB_COUNT have a bucket each, then SUB_COUNT buckets per power of two up to 2^62
+    protected static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    // getValues() scales the values down past this size
+    protected static final int MAX_VALUES = 1 << 16;
+
+    protected final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    public LatencyReservoir() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void update(long value) {
+        counts[indexOf(value)].increment();
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (LongAdder count : counts) {
+            size += count.sum();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the values recorded since the previous snapshot, and starts a new interval.
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sumThenReset();
+        }
+        return new BucketSnapshot(snapshot);
+    }
+
+    public static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Returns the value a bucket stands for, the middle of its range.
+     */
+    public static long valueOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+
+    protected static class BucketSnapshot extends Snapshot {
+
+        protected final long[] counts;
+
+        protected final long total;
+
+        protected BucketSnapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long count : counts) {
+                sum += count;
+            }
+            total = sum;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+            if (total == 0) {
+                return 0.0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank) {
+                    return valueOf(i);
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        public long[] getValues() {
+            int n = (int) Math.min(total, MAX_VALUES);
+            long[] values = new long[n];
+            long cumulative = 0;
+            int j = 0;
+            for (int i = 0; i < counts.length && j < n; i++) {
+                cumulative += counts[i];
+                // the values up to this bucket, in proportion when there are more than MAX_VALUES
+                int end = (int) (cumulative * n / total);
+                for (; j < end; j++) {
+                    values[j] = valueOf(i);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(total, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return valueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public long getMin() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    return valueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public double getMean() {
+            if (total == 0) {
+                return 0.0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += (double) counts[i] * valueOf(i);
+            }
+            return sum / total;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (total <= 1) {
+                return 0.0;
+            }
+            double mean = getMean();
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                double diff = valueOf(i) - mean;
+                sum += counts[i] * diff * diff;
+            }
+            return Math.sqrt(sum / (total - 1));
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (long value : getValues()) {
+                    out.printf("%d%n", value);
+                }
+            }
+        }
+    }
+
+}
@@ -20,39 +20,87 @@
 package org.nuxeo.sample;
 
 import java.security.Principal;
+import java.util.EnumSet;
+import java.util.Set;
 
 import org.nuxeo.ecm.core.api.NuxeoPrincipal;
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.Access;
 import org.nuxeo.ecm.core.model.Document;
-import org.nuxeo.ecm.core.query.sql.model.Expression;
 import org.nuxeo.ecm.core.query.sql.model.Operator;
 import org.nuxeo.ecm.core.query.sql.model.Predicate;
-import org.nuxeo.ecm.core.query.sql.model.Reference;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
-import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
 import org.nuxeo.ecm.core.query.sql.model.WhereClause;
 import org.nuxeo.ecm.core.security.AbstractSecurityPolicy;
 import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.sample.DocumentFacts.Column;
 
-public class LifeCycleSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy {
+public class LifeCycleSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy, BatchSecurityPolicy {
+
+    // name under which the policy is measured, see PolicyMetrics
+    public static final String POLICY_NAME = "lifecycle";
+
+    protected static final PolicyMetrics METRICS = PolicyMetrics.of(POLICY_NAME);
 
     @Override
     public Access checkPermission(Document doc, ACP mergedAcp, NuxeoPrincipal principal, String permission, String[] resolvedPermissions, String[] additionalPrincipals) {
 
+        long start = System.nanoTime();
+        // the verdict doesn't depend on the principal
+        VerdictCache.Key key = VerdictCache.key(POLICY_NAME, doc, null, permission);
+        Access cached = VerdictCache.lookup(key);
+        if (cached != null) {
+            return METRICS.checked(start, permission, cached);
+        }
         String lifeCycle = doc.getLifeCycleState();
 
-        if ( doc.getType().getName().equals("File") ) {
+        if ( isDenied(PolicyConfig.current(), doc.getType().getName(), lifeCycle) ) {
+            // DENY access to the item
+            return METRICS.checked(start, permission, VerdictCache.store(key, Access.DENY));
+        }
+        return METRICS.checked(start, permission, VerdictCache.store(key, Access.UNKNOWN));
+    }
+
+    @Override
+    public void checkPermissions(DocumentFacts docs, NuxeoPrincipal principal, Entitlements entitlements,
+            PolicyConfig config, String permission, Verdicts verdicts) {
+
+        long start = System.nanoTime();
+        String[] types = docs.types();
+        String[] lifeCycles = docs.lifeCycleStates();
+        int evaluated = 0;
+        int denied = 0;
+
+        for (int i = verdicts.nextUndecided(0); i >= 0; i = verdicts.nextUndecided(i + 1)) {
+            evaluated++;
+            if ( isDenied(config, types[i], lifeCycles[i]) ) {
+                verdicts.deny(i);
+                denied++;
+            }
+        }
+        METRICS.batchChecked(start, permission, evaluated, 0, denied);
+    }
+
+    @Override
+    public Set<Column> getColumns() {
+        return EnumSet.of(Column.TYPE, Column.LIFECYCLE_STATE);
+    }
+
+    // the rule on already fetched attributes, shared with CompositeSecurityPolicy
+    public static boolean isDenied(String type, String lifeCycle) {
+        return isDenied(PolicyConfig.current(), type, lifeCycle);
+    }
+
+    public static boolean isDenied(PolicyConfig config, String type, String lifeCycle) {
+        // File and its subtypes, but the CustomFiles which have the archived rule, see PolicyConfig
+        if ( config.isLifeCycleRestricted(type) ) {
             if ( lifeCycle != null ) {
-                // if current lifecycle state is NOT approved
-                if ( !lifeCycle.equals("approved") ) {
-                    // DENY access to the item
-                    return Access.DENY;
-                }
+                // if current lifecycle state is NOT approved (see PolicyConfig)
+                return !lifeCycle.equals(config.getApprovedState());
             }
         }
-        return Access.UNKNOWN;
+        return false;
     }
 
     @Override
@@ -70,25 +118,32 @@ public class LifeCycleSecurityPolicy extends AbstractSecurityPolicy implements S
         private static final long serialVersionUID = 1L;
 
         // Expressions, we need to check that:
-        // * document type is File
+        // * document type is File or one of its subtypes, CustomFiles excepted
         // * current lifecycle state is NOT approved (we're allowed to see the approved ones)
-        public static final Expression IS_FILE = new Expression(new Reference("ecm:primaryType"), Operator.EQ, new StringLiteral("File"));
-        public static final Expression APPROVED = new Expression(new Reference("ecm:currentLifeCycleState"), Operator.NOTEQ, new StringLiteral("approved")); 
+        // both built with the PolicyConfig, see PolicyConfig.getLifeCycleRestricted
 
         // A SQL Query is made whenever a document listing is shown
         // This transformer changes the SQL query so that restricted documents are not shown in results
         @Override
         public SQLQuery transform(NuxeoPrincipal principal, SQLQuery query) {
 
-            // if user is system or Admin do nothing
-            if (principal.getName().equals("system") || principal.getName().equals("Administrator")){
-                return query;
+            long start = System.nanoTime();
+
+            // if user bypasses the policies do nothing, see BypassPrincipals
+            if (Entitlements.of(principal).isUnrestricted()) {
+                return METRICS.transformed(start, principal, query);
             }
 
             WhereClause where = query.where;
-            Expression expr = new Expression(IS_FILE, Operator.AND, APPROVED);
             Predicate predicate;
 
+            // the positive, index friendly form of the filter when enabled
+            PolicyConfig config = PolicyConfig.current();
+            Predicate filter = config.getPositiveFilter(PolicyConfig.FILE_TYPE);
+            if (filter == null) {
+                filter = new Predicate(config.getLifeCycleRestricted(), Operator.NOT, null);
+            }
+
             // a sql query can have a WHERE clause or not have a WHERE clause
             // if it does not have a WHERE clause we add our new clause using WHERE
             // if it already has a WHERE clause we add our expressions to it
@@ -97,13 +152,13 @@ public class LifeCycleSecurityPolicy extends AbstractSecurityPolicy implements S
 
             if (where == null || where.predicate == null) {
                 // add WHERE NOT primary type is File and ecm lifecycle not approved
-                predicate = new Predicate(expr, Operator.NOT, null);
+                predicate = filter;
             } else {
                 // add AND NOT primary type is File and ecm lifecycle not approved to WHERE clause
-                predicate = new Predicate(where.predicate, Operator.AND, new Predicate(expr, Operator.NOT, null));
+                predicate = new Predicate(where.predicate, Operator.AND, filter);
             }
 
-            return new SQLQuery(query.select, query.from, new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset);
+            return METRICS.transformed(start, principal, new SQLQuery(query.select, query.from, new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset));
 
         }
     }
@@ -12,6 +12,8 @@
 package org.nuxeo.sample;
 
 import java.security.Principal;
+import java.util.EnumSet;
+import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -19,51 +21,131 @@ import org.nuxeo.ecm.core.api.NuxeoPrincipal;
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.Access;
 import org.nuxeo.ecm.core.model.Document;
-import org.nuxeo.ecm.core.query.sql.model.Expression;
 import org.nuxeo.ecm.core.query.sql.model.Operator;
 import org.nuxeo.ecm.core.query.sql.model.Predicate;
-import org.nuxeo.ecm.core.query.sql.model.Reference;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
-import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
 import org.nuxeo.ecm.core.query.sql.model.WhereClause;
 import org.nuxeo.ecm.core.security.AbstractSecurityPolicy;
 import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.sample.DocumentFacts.Column;
 
-public class NoItarSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy {
+public class NoItarSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy, BatchSecurityPolicy {
 
-    // ENTER THE ITAR READERS GROUP NAME AND ITAR YES/NO FIELD HERE BEFORE COMPILING
+    // the default ITAR readers group and ITAR Yes/No field, configurable at runtime, see PolicyConfig
     public static final String ITAR_READERS_GROUP = "itar_readers";
 
     public static final String ITAR_FIELD = "ITAR:ITAR_doc";
 
+    // name under which the policy is measured, see PolicyMetrics
+    public static final String POLICY_NAME = "itar";
+
+    protected static final PolicyMetrics METRICS = PolicyMetrics.of(POLICY_NAME);
+
     private static final Log log = LogFactory.getLog(NoItarSecurityPolicy.class);
 
+    // whether to test the denormalized facet instead of the type and ITAR value, see ItarRestriction
+    protected final boolean restrictionFacet;
+
+    public NoItarSecurityPolicy() {
+        this(ItarRestriction.isEnabled());
+    }
+
+    public NoItarSecurityPolicy(boolean restrictionFacet) {
+        this.restrictionFacet = restrictionFacet;
+    }
+
     @Override
     public Access checkPermission(Document doc, ACP mergedAcp, NuxeoPrincipal principal, String permission,
             String[] resolvedPermissions, String[] additionalPrincipals) {
 
-        // if document is of type FILE
-        if (doc.getType().getName().equals("File")){
+        long start = System.nanoTime();
+        boolean itarReader = Entitlements.of(principal).isItarReader();
+        // the verdict only depends on the reader flag of the principal
+        VerdictCache.Key key = VerdictCache.key(POLICY_NAME, doc, Boolean.valueOf(itarReader), permission);
+        Access cached = VerdictCache.lookup(key);
+        if (cached != null) {
+            return METRICS.checked(start, permission, cached);
+        }
+
+        // the facet is set on the ITAR Files, one test instead of the type and property reads below
+        if (restrictionFacet) {
+            if (doc.hasFacet(ItarRestriction.FACET) && !itarReader) {
+                return METRICS.checked(start, permission, VerdictCache.store(key, Access.DENY));
+            }
+            return METRICS.checked(start, permission, VerdictCache.store(key, Access.UNKNOWN));
+        }
+
+        // if document is of type FILE, or one of its subtypes
+        PolicyConfig config = PolicyConfig.current();
+        if (config.isFile(doc.getType().getName())){
 
             try {
                 // get value of ITAR field
-                String s = (String) doc.getPropertyValue(ITAR_FIELD);
+                String s = (String) doc.getPropertyValue(config.getItarField());
 
                 // if value is not null, and is Yes
-                if ( s != null && s.equals("Yes") ){
+                if ( isItar(s) ){
                     // and user is NOT a member of ITAR group
-                    if (!((NuxeoPrincipal) principal).isMemberOf(ITAR_READERS_GROUP)){
+                    if (!itarReader){
                         // DENY access to the item
-                        return Access.DENY;
+                        return METRICS.checked(start, permission, VerdictCache.store(key, Access.DENY));
                     }
                 } 
 
             } catch (Exception e){
+                // not cached, the next check logs it again
                 log.error(e.toString());
+                return METRICS.checked(start, permission, Access.UNKNOWN);
+            }
+        }
+        return METRICS.checked(start, permission, VerdictCache.store(key, Access.UNKNOWN));
+    }
+
+    @Override
+    public void checkPermissions(DocumentFacts docs, NuxeoPrincipal principal, Entitlements entitlements,
+            PolicyConfig config, String permission, Verdicts verdicts) {
+
+        long start = System.nanoTime();
+        int evaluated = 0;
+        int denied = 0;
+
+        // membership decided once for the batch, ITAR readers are never denied
+        boolean itarReader = entitlements.isItarReader();
+        if (!itarReader && restrictionFacet) {
+            boolean[] restricted = docs.itarRestricted();
+            for (int i = verdicts.nextUndecided(0); i >= 0; i = verdicts.nextUndecided(i + 1)) {
+                evaluated++;
+                if (restricted[i]) {
+                    verdicts.deny(i);
+                    denied++;
+                }
+            }
+        } else if (!itarReader) {
+            // only Files and their subtypes have an ITAR value, see DocumentFacts.itar
+            String[] itar = docs.itar();
+            for (int i = verdicts.nextUndecided(0); i >= 0; i = verdicts.nextUndecided(i + 1)) {
+                evaluated++;
+                if (isItar(itar[i])) {
+                    verdicts.deny(i);
+                    denied++;
+                }
             }
         }
-        return Access.UNKNOWN;
+        METRICS.batchChecked(start, permission, evaluated, 0, denied);
+    }
+
+    @Override
+    public Set<Column> getColumns() {
+        if (restrictionFacet) {
+            return EnumSet.of(Column.ITAR_RESTRICTED);
+        }
+        return EnumSet.of(Column.TYPE, Column.ITAR);
+    }
+
+    // the rule on the already fetched ITAR value of a File, shared with CompositeSecurityPolicy
+    public static boolean isItar(String itar) {
+        return itar != null && itar.equals("Yes");
     }
 
     @Override
@@ -81,61 +163,70 @@ public class NoItarSecurityPolicy extends AbstractSecurityPolicy implements Secu
         private static final long serialVersionUID = 1L;
 
         // Expressions for three parameters, we need to check that:
-        // * document type is File
+        // * document type is File or one of its subtypes
         // * ITAR value is Yes
         // * ITAR value is not null
-        public static final Expression IS_FILE = new Expression(new Reference("ecm:primaryType"), Operator.EQ,
-                new StringLiteral("File"));
-        public static final Expression ITAR_YES = new Expression(new Reference(ITAR_FIELD), Operator.EQ,
-                new StringLiteral("Yes"));
-        public static final Expression ITAR_NOT_NULL = new Expression(new Reference(ITAR_FIELD), Operator.ISNOTNULL, null);
+        // on the configured ITAR field and types, see PolicyConfig.getNotItar
+
+        // ItarRestriction.NOT_RESTRICTED once the facet is maintained, null for the PolicyConfig filter
+        protected final transient Predicate filter;
+
+        public NoItarTransformer() {
+            this(null);
+        }
+
+        public NoItarTransformer(Predicate filter) {
+            this.filter = filter;
+        }
 
         // A SQL Query is made whenever a document listing is shown
         // This transformer changes the SQL query so that restricted documents are not shown in results
         @Override
         public SQLQuery transform(NuxeoPrincipal principal, SQLQuery query) {
 
-            // if user is system or Admin do nothing
-            if (principal.getName().equals("system") || principal.getName().equals("Administrator")){
-                return query;
+            long start = System.nanoTime();
+
+            Entitlements entitlements = Entitlements.of(principal);
+
+            // if user bypasses the policies do nothing
+            if (entitlements.isUnrestricted()) {
+                return METRICS.transformed(start, principal, query);
+            }
+
+            // if principal is member of ITAR_READERS_GROUP, do nothing
+            // decided before building anything, most of our users are ITAR readers
+            if (entitlements.isItarReader()) {
+                return METRICS.transformed(start, principal, query);
             }
 
             WhereClause where = query.where;
-            Expression expr = new Expression(IS_FILE, Operator.AND, ITAR_YES);
-            expr = new Expression(expr, Operator.AND, ITAR_NOT_NULL);
             Predicate predicate;
+            Predicate filter = this.filter != null ? this.filter : PolicyConfig.current().getNotItar();
 
             // a sql query can have a WHERE clause or not have a WHERE clause
             // if it does not have a WHERE clause we add our new clause using WHERE
             // if it already has a WHERE clause we add our expressions to it
 
             if (where == null || where.predicate == null) {
-                // add WHERE NOT (ecm:primaryType = 'File' AND ITAR:ITAR_doc = 'Yes' AND ITAR:ITAR_doc is not null)
-                predicate = new Predicate(expr, Operator.NOT, null);
+                // add WHERE NOT (ecm:primaryType IN ('File', ...) AND ITAR:ITAR_doc = 'Yes' AND ITAR:ITAR_doc is not null)
+                predicate = filter;
             } else {
-                // add AND NOT (ecm:primaryType = 'File' AND ITAR:ITAR_doc = 'Yes' AND ITAR:ITAR_doc is not null) to WHERE clause
-                predicate = new Predicate(where.predicate, Operator.AND, new Predicate(expr, Operator.NOT, null));
+                // add AND NOT (ecm:primaryType IN ('File', ...) AND ITAR:ITAR_doc = 'Yes' AND ITAR:ITAR_doc is not null) to WHERE clause
+                predicate = new Predicate(where.predicate, Operator.AND, filter);
             }
 
-            SQLQuery newQuery = new SQLQuery(query.select, query.from, new WhereClause(predicate), query.groupBy,
-                    query.having, query.orderBy, query.limit, query.offset);
-
-            // to get group membership we must cast principal as a NuxeoPrincipal
-            // if principal is member of ITAR_READERS_GROUP, do nothing
-            // else add filters
-            if (((NuxeoPrincipal) principal).isMemberOf(ITAR_READERS_GROUP)){
-                return query;
-            } else {
-                return newQuery;
-            }
+            return METRICS.transformed(start, principal, new SQLQuery(query.select, query.from,
+                    new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset));
         }
     }
 
     public static final Transformer NO_ITAR_TRANSFORMER = new NoItarTransformer();
 
+    public static final Transformer NO_ITAR_FACET_TRANSFORMER = new NoItarTransformer(ItarRestriction.NOT_RESTRICTED);
+
     @Override
     public Transformer getQueryTransformer(String repositoryName) {
-        return NO_ITAR_TRANSFORMER;
+        return restrictionFacet ? NO_ITAR_FACET_TRANSFORMER : NO_ITAR_TRANSFORMER;
     }
 
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.ecm.core.security.AbstractSecurityPolicy;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+
+/**
+ * Restricts nothing, its query transformer normalizes the WHERE clause built by the other policies (see
+ * {@link PredicateNormalizer}).
+ * <p>
+ * The policies transformers are applied in the policies order, so it must be registered with an order greater than
+ * theirs to run last.
+ * <p>
+ * It is contributed disabled. The normalizer rewrites the whole WHERE clause, the user's part included, and its NOT
+ * push-down and null rewrites rely on the SQL three-valued logic of VCS: DBS repositories (MongoDB, in memory) evaluate
+ * a NOT or a comparison on a missing property differently, so enable it on VCS repositories only.
+ */
+public class NormalizingSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy {
+
+    // name under which the normalization is measured, see PolicyMetrics
+    public static final String POLICY_NAME = "normalizer";
+
+    protected static final PolicyMetrics METRICS = PolicyMetrics.of(POLICY_NAME);
+
+    @Override
+    public Access checkPermission(Document doc, ACP mergedAcp, NuxeoPrincipal principal, String permission,
+            String[] resolvedPermissions, String[] additionalPrincipals) {
+        return Access.UNKNOWN;
+    }
+
+    @Override
+    public boolean isRestrictingPermission(String permission) {
+        return false;
+    }
+
+    @Override
+    public boolean isExpressibleInQuery(String repositoryName) {
+        return true;
+    }
+
+    public static class NormalizingTransformer implements Transformer {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final transient PredicateNormalizer normalizer;
+
+        public NormalizingTransformer() {
+            this(new PredicateNormalizer());
+        }
+
+        public NormalizingTransformer(PredicateNormalizer normalizer) {
+            this.normalizer = normalizer;
+        }
+
+        @Override
+        public SQLQuery transform(NuxeoPrincipal principal, SQLQuery query) {
+
+            long start = System.nanoTime();
+
+            // if user bypasses the policies they added nothing
+            if (Entitlements.of(principal).isUnrestricted()) {
+                return METRICS.transformed(start, principal, query);
+            }
+
+            return METRICS.transformed(start, principal, normalizer.normalize(query));
+        }
+    }
+
+    public static final Transformer NORMALIZING_TRANSFORMER = new NormalizingTransformer();
+
+    @Override
+    public Transformer getQueryTransformer(String repositoryName) {
+        return NORMALIZING_TRANSFORMER;
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Opt-in parallel {@link BatchPermissionEvaluator}, for the batches of reindexing and bulk exports.
+ * <p>
+ * The batch is cut in chunks evaluated by a bounded {@link ForkJoinPool}, each chunk going through all the policies in
+ * order, and the chunk verdicts are copied back in document order. The workers never touch the session nor the
+ * transaction: the document columns the policies declare are read and the principal {@link Entitlements} resolved on
+ * the calling thread first, the workers only see {@link DocumentFacts#slice slices} of the columns. Batches smaller
+ * than two chunks, or with a policy that can only check one document at a time, are evaluated on the calling thread.
+ */
+public class ParallelBatchPermissionEvaluator extends BatchPermissionEvaluator {
+
+    public static final String PARALLELISM_PROPERTY = "org.nuxeo.sample.batch.parallelism";
+
+    public static final String CHUNK_SIZE_PROPERTY = "org.nuxeo.sample.batch.chunkSize";
+
+    // shared by the evaluators built without an explicit pool, created on first use
+    private static volatile ForkJoinPool sharedPool;
+
+    protected final ForkJoinPool pool;
+
+    protected final int chunkSize;
+
+    public ParallelBatchPermissionEvaluator(List<? extends SecurityPolicy> policies) {
+        this(policies, sharedPool(), Integer.parseInt(Framework.getProperty(CHUNK_SIZE_PROPERTY, "1024")));
+    }
+
+    public ParallelBatchPermissionEvaluator(List<? extends SecurityPolicy> policies, ForkJoinPool pool,
+            int chunkSize) {
+        super(policies);
+        this.pool = pool;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    protected static ForkJoinPool sharedPool() {
+        ForkJoinPool pool = sharedPool;
+        if (pool == null) {
+            synchronized (ParallelBatchPermissionEvaluator.class) {
+                pool = sharedPool;
+                if (pool == null) {
+                    int parallelism = Integer.parseInt(Framework.getProperty(PARALLELISM_PROPERTY,
+                            String.valueOf(Math.min(8, Runtime.getRuntime().availableProcessors()))));
+                    pool = new ForkJoinPool(Math.max(1, parallelism));
+                    sharedPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    @Override
+    public Verdicts evaluate(DocumentFacts docs, NuxeoPrincipal principal, String permission) {
+        int size = docs.size();
+        Set<DocumentFacts.Column> columns = getColumns();
+        if (size < 2 * chunkSize || columns == null) {
+            return super.evaluate(docs, principal, permission);
+        }
+
+        // on the calling thread, the one owning the session and its transaction, a cache miss of the entitlements goes
+        // to the user directory
+        docs.prefetch(columns);
+        Entitlements entitlements = Entitlements.of(principal);
+        PolicyConfig config = entitlements.config();
+
+        List<ForkJoinTask<Verdicts>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += chunkSize) {
+            DocumentFacts chunk = docs.slice(from, Math.min(size, from + chunkSize));
+            tasks.add(pool.submit(() -> super.evaluate(chunk, principal, entitlements, config, permission)));
+        }
+        Verdicts verdicts = new Verdicts(size);
+        for (int i = 0; i < tasks.size(); i++) {
+            verdicts.putAll(tasks.get(i).join(), i * chunkSize);
+        }
+        return verdicts;
+    }
+
+    /**
+     * The columns read by the policies, {@code null} if one of them is not a {@link BatchSecurityPolicy}.
+     */
+    protected Set<DocumentFacts.Column> getColumns() {
+        Set<DocumentFacts.Column> columns = EnumSet.noneOf(DocumentFacts.Column.class);
+        for (SecurityPolicy policy : policies) {
+            if (!(policy instanceof BatchSecurityPolicy)) {
+                return null;
+            }
+            columns.addAll(((BatchSecurityPolicy) policy).getColumns());
+        }
+        return columns;
+    }
+
+}
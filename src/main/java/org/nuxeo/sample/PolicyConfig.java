@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.query.sql.model.Expression;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * The configuration of the sample policies as one immutable snapshot: the ITAR readers group and field, the lifecycle
+ * states letting Files and CustomFiles through, the {@link RightsTable}, {@link BypassPrincipals}, {@link RuleSet} and
+ * {@link TypeIndex}, whether the {@link RightsAcl} projection replaces the rights policy, and the
+ * {@link PositiveStateFilters} computed from them.
+ * <p>
+ * Policies read {@link #current()} once per check or query and use its fields, the NXQL expressions derived from the
+ * values are built with the snapshot. A new configuration is installed by swapping the whole snapshot, see
+ * {@link SecurityPolicyComponent#reload()}, so a reader never sees half of a change. The cached {@link Entitlements}
+ * are tied to the snapshot they were computed on.
+ */
+public final class PolicyConfig {
+
+    private static final Log log = LogFactory.getLog(PolicyConfig.class);
+
+    public static final String ITAR_READERS_GROUP_PROPERTY = "org.nuxeo.sample.itar.readersGroup";
+
+    public static final String ITAR_FIELD_PROPERTY = "org.nuxeo.sample.itar.field";
+
+    public static final String APPROVED_STATE_PROPERTY = "org.nuxeo.sample.lifecycle.approvedState";
+
+    public static final String ARCHIVED_STATE_PROPERTY = "org.nuxeo.sample.archived.archivedState";
+
+    // the types restricted by the lifecycle and ITAR policies, and by the archived policy, subtypes included; the
+    // CustomFiles have the archived rule instead of the File lifecycle one, their lifecycle has no approved state
+    public static final String FILE_TYPE = "File";
+
+    public static final String CUSTOM_FILE_TYPE = "CustomFile";
+
+    // the values hardcoded before they were configurable, used when the component is not deployed
+    public static final PolicyConfig DEFAULT = new PolicyConfig(NoItarSecurityPolicy.ITAR_READERS_GROUP,
+            NoItarSecurityPolicy.ITAR_FIELD, "approved", "archived", RightsTable.DEFAULT, BypassPrincipals.DEFAULT,
+            RuleSet.EMPTY, TypeIndex.EMPTY, false, Collections.emptyMap());
+
+    private static final AtomicReference<PolicyConfig> CURRENT = new AtomicReference<>(DEFAULT);
+
+    private final String itarReadersGroup;
+
+    private final String itarField;
+
+    private final String approvedState;
+
+    private final String archivedState;
+
+    private final RightsTable rights;
+
+    private final BypassPrincipals bypass;
+
+    private final RuleSet rules;
+
+    private final TypeIndex types;
+
+    // whether dc:rights is projected into the document ACLs instead of checked by the rights policy, see RightsAcl
+    private final boolean rightsAclProjection;
+
+    // restricted document type -> positive filter, empty when disabled, see PositiveStateFilters
+    private final Map<String, Predicate> positiveFilters;
+
+    // the ids of FILE_TYPE and CUSTOM_FILE_TYPE in the type index, UNKNOWN when they are not registered
+    private final int fileType;
+
+    private final int customFileType;
+
+    // File and its subtypes but the CustomFiles, CustomFile and its subtypes
+    private final List<String> lifeCycleTypes;
+
+    private final List<String> archivedTypes;
+
+    // ecm:primaryType IN ('File', subtypes but CustomFiles...) AND ecm:currentLifeCycleState <> 'approved'
+    private final Expression lifeCycleRestricted;
+
+    // ecm:primaryType IN ('CustomFile', subtypes...) AND ecm:currentLifeCycleState <> 'archived'
+    private final Expression archivedRestricted;
+
+    // ecm:primaryType IN ('File', subtypes...) AND ITAR:ITAR_doc = 'Yes' AND ITAR:ITAR_doc IS NOT NULL
+    private final Expression itarRestricted;
+
+    private final Predicate notItar;
+
+    // dc:expired and the ITAR field, read together on Files
+    private final Set<String> fileFields;
+
+    // whether the ITAR field is deployed, looked up on first use
+    private volatile Boolean itarDeployed;
+
+    private PolicyConfig(String itarReadersGroup, String itarField, String approvedState, String archivedState,
+            RightsTable rights, BypassPrincipals bypass, RuleSet rules, TypeIndex types, boolean rightsAclProjection,
+            Map<String, Predicate> positiveFilters) {
+        this.itarReadersGroup = itarReadersGroup;
+        this.itarField = itarField;
+        this.approvedState = approvedState;
+        this.archivedState = archivedState;
+        this.rights = rights;
+        this.bypass = bypass;
+        this.rules = rules;
+        this.types = types;
+        this.rightsAclProjection = rightsAclProjection;
+        this.positiveFilters = positiveFilters;
+        fileType = types.idOf(FILE_TYPE);
+        customFileType = types.idOf(CUSTOM_FILE_TYPE);
+        lifeCycleTypes = types.subtypesOf(FILE_TYPE, CUSTOM_FILE_TYPE);
+        archivedTypes = types.subtypesOf(CUSTOM_FILE_TYPE);
+        Expression isFile = types.primaryTypeIn(FILE_TYPE);
+        lifeCycleRestricted = new Expression(TypeIndex.primaryTypeIn(lifeCycleTypes), Operator.AND,
+                new Expression(new Reference("ecm:currentLifeCycleState"), Operator.NOTEQ,
+                        new StringLiteral(approvedState)));
+        archivedRestricted = new Expression(TypeIndex.primaryTypeIn(archivedTypes), Operator.AND,
+                new Expression(new Reference("ecm:currentLifeCycleState"), Operator.NOTEQ,
+                        new StringLiteral(archivedState)));
+        Expression itarYes = new Expression(new Reference(itarField), Operator.EQ, new StringLiteral("Yes"));
+        Expression itarNotNull = new Expression(new Reference(itarField), Operator.ISNOTNULL, null);
+        itarRestricted = new Expression(new Expression(isFile, Operator.AND, itarYes), Operator.AND, itarNotNull);
+        notItar = new Predicate(itarRestricted, Operator.NOT, null);
+        fileFields = Set.of(DcExpiredSecurityPolicy.DC_EXPIRED_FIELD, itarField);
+    }
+
+    public static PolicyConfig current() {
+        return CURRENT.get();
+    }
+
+    public static void install(PolicyConfig config) {
+        CURRENT.set(config);
+        changed();
+    }
+
+    /**
+     * Atomically replaces the current configuration by the updated one, for changes of a single part.
+     */
+    public static PolicyConfig update(UnaryOperator<PolicyConfig> update) {
+        PolicyConfig config = CURRENT.updateAndGet(update);
+        changed();
+        return config;
+    }
+
+    // cached entitlements and verdicts were computed on the previous configuration
+    private static void changed() {
+        Entitlements.CACHE.invalidateAll();
+        VerdictCache verdicts = VerdictCache.current();
+        if (verdicts != null) {
+            verdicts.invalidateAll();
+        }
+    }
+
+    /**
+     * Builds a configuration from the runtime properties, falling back to the {@link #DEFAULT} values.
+     */
+    public static PolicyConfig load(RightsTable rights, BypassPrincipals bypass, RuleSet rules, TypeIndex types) {
+        return new PolicyConfig(Framework.getProperty(ITAR_READERS_GROUP_PROPERTY, DEFAULT.itarReadersGroup),
+                Framework.getProperty(ITAR_FIELD_PROPERTY, DEFAULT.itarField),
+                Framework.getProperty(APPROVED_STATE_PROPERTY, DEFAULT.approvedState),
+                Framework.getProperty(ARCHIVED_STATE_PROPERTY, DEFAULT.archivedState), rights, bypass, rules, types,
+                Framework.isBooleanPropertyTrue(RightsAcl.ENABLED_PROPERTY), Collections.emptyMap());
+    }
+
+    public static PolicyConfig of(String itarReadersGroup, String itarField, String approvedState,
+            String archivedState, RightsTable rights, BypassPrincipals bypass, RuleSet rules, TypeIndex types,
+            boolean rightsAclProjection) {
+        return new PolicyConfig(itarReadersGroup, itarField, approvedState, archivedState, rights, bypass, rules,
+                types, rightsAclProjection, Collections.emptyMap());
+    }
+
+    public PolicyConfig withRights(RightsTable rights) {
+        return new PolicyConfig(itarReadersGroup, itarField, approvedState, archivedState, rights, bypass, rules,
+                types, rightsAclProjection, positiveFilters);
+    }
+
+    public PolicyConfig withBypass(BypassPrincipals bypass) {
+        return new PolicyConfig(itarReadersGroup, itarField, approvedState, archivedState, rights, bypass, rules,
+                types, rightsAclProjection, positiveFilters);
+    }
+
+    public PolicyConfig withRules(RuleSet rules) {
+        return new PolicyConfig(itarReadersGroup, itarField, approvedState, archivedState, rights, bypass, rules,
+                types, rightsAclProjection, positiveFilters);
+    }
+
+    public PolicyConfig withTypes(TypeIndex types) {
+        return new PolicyConfig(itarReadersGroup, itarField, approvedState, archivedState, rights, bypass, rules,
+                types, rightsAclProjection, positiveFilters);
+    }
+
+    public PolicyConfig withRightsAclProjection(boolean rightsAclProjection) {
+        return new PolicyConfig(itarReadersGroup, itarField, approvedState, archivedState, rights, bypass, rules,
+                types, rightsAclProjection, positiveFilters);
+    }
+
+    /**
+     * Returns a copy of this configuration with the positive filters, computed from it by
+     * {@link PositiveStateFilters#compute(PolicyConfig)}.
+     */
+    public PolicyConfig withPositiveFilters(Map<String, Predicate> positiveFilters) {
+        return new PolicyConfig(itarReadersGroup, itarField, approvedState, archivedState, rights, bypass, rules,
+                types, rightsAclProjection, Collections.unmodifiableMap(new HashMap<>(positiveFilters)));
+    }
+
+    public String getItarReadersGroup() {
+        return itarReadersGroup;
+    }
+
+    public String getItarField() {
+        return itarField;
+    }
+
+    public String getApprovedState() {
+        return approvedState;
+    }
+
+    public String getArchivedState() {
+        return archivedState;
+    }
+
+    public RightsTable getRights() {
+        return rights;
+    }
+
+    public BypassPrincipals getBypass() {
+        return bypass;
+    }
+
+    public RuleSet getRules() {
+        return rules;
+    }
+
+    public boolean isRightsAclProjection() {
+        return rightsAclProjection;
+    }
+
+    public TypeIndex getTypes() {
+        return types;
+    }
+
+    /**
+     * Returns the positive filter for the type restricted by a policy, {@code null} if the NOT form must be used.
+     */
+    public Predicate getPositiveFilter(String type) {
+        return positiveFilters.get(type);
+    }
+
+    /**
+     * Whether the type is a File or one of its subtypes.
+     */
+    public boolean isFile(String type) {
+        return isA(type, fileType, FILE_TYPE);
+    }
+
+    /**
+     * Whether the type is a CustomFile or one of its subtypes.
+     */
+    public boolean isCustomFile(String type) {
+        return isA(type, customFileType, CUSTOM_FILE_TYPE);
+    }
+
+    /**
+     * Whether the File lifecycle rule applies to the type: a File or one of its subtypes, but not a CustomFile.
+     */
+    public boolean isLifeCycleRestricted(String type) {
+        return isFile(type) && !isCustomFile(type);
+    }
+
+    /**
+     * The types the lifecycle rule applies to, see {@link #isLifeCycleRestricted}.
+     */
+    public List<String> getLifeCycleTypes() {
+        return lifeCycleTypes;
+    }
+
+    /**
+     * The types the archived rule applies to, CustomFile and its subtypes.
+     */
+    public List<String> getArchivedTypes() {
+        return archivedTypes;
+    }
+
+    // without the type registered, as without the component, the type has no known subtype
+    private boolean isA(String type, int superTypeId, String superType) {
+        return superTypeId == TypeIndex.UNKNOWN ? superType.equals(type) : types.isA(type, superTypeId);
+    }
+
+    public Expression getLifeCycleRestricted() {
+        return lifeCycleRestricted;
+    }
+
+    public Expression getArchivedRestricted() {
+        return archivedRestricted;
+    }
+
+    public Expression getItarRestricted() {
+        return itarRestricted;
+    }
+
+    /**
+     * {@code NOT (ecm:primaryType IN ('File', ...) AND ITAR:ITAR_doc = 'Yes' AND ITAR:ITAR_doc IS NOT NULL)}, shared by
+     * all queries.
+     */
+    public Predicate getNotItar() {
+        return notItar;
+    }
+
+    /**
+     * The properties the expiry and ITAR rules read on a File, to fetch them in one {@code readPrefetch}.
+     */
+    public Set<String> getFileFields() {
+        return fileFields;
+    }
+
+    /**
+     * Whether the ITAR field is deployed, the ITAR restriction can't be evaluated nor queried without it.
+     */
+    public boolean isItarDeployed() {
+        Boolean deployed = itarDeployed;
+        if (deployed == null) {
+            deployed = Boolean.valueOf(Framework.getService(SchemaManager.class).getField(itarField) != null);
+            if (!deployed.booleanValue()) {
+                log.info(itarField + " is not deployed, the ITAR restriction is disabled");
+            }
+            itarDeployed = deployed;
+        }
+        return deployed.booleanValue();
+    }
+
+}
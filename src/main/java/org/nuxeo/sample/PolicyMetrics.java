@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.SystemPrincipal;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+import io.dropwizard.metrics5.Timer;
+
+/**
+ * Latency and verdict metrics of a security policy, in the registry reported by the {@code MetricsService}:
+ * <ul>
+ * <li>{@code nuxeo.securitypolicy.check} timer, tagged by policy,</li>
+ * <li>{@code nuxeo.securitypolicy.check.batch} timer of the batch checks, tagged by policy,</li>
+ * <li>{@code nuxeo.securitypolicy.verdict} counters, tagged by policy, permission and access,</li>
+ * <li>{@code nuxeo.securitypolicy.transform} timer, tagged by policy,</li>
+ * <li>{@code nuxeo.securitypolicy.transform.principal} counters, tagged by policy and {@link PrincipalClass}.</li>
+ * </ul>
+ * Everything is looked up or created ahead of the calls: recording is a timer update and a counter increment, without
+ * allocation nor lock. The timers count into a {@link LatencyReservoir}, the dropwizard reservoirs allocate a sample
+ * per update and lock to rescale or slide. Policies return through {@link #checked} and {@link #transformed} so that
+ * each exit is recorded:
+ *
+ * <pre>
+ * long start = System.nanoTime();
+ * ...
+ * return METRICS.checked(start, permission, Access.DENY);
+ * </pre>
+ */
+public final class PolicyMetrics {
+
+    public enum PrincipalClass {
+        SYSTEM, UNRESTRICTED, ANONYMOUS, USER
+    }
+
+    protected static final MetricName NAME = MetricName.build("nuxeo", "securitypolicy");
+
+    private static final Access[] ACCESSES = Access.values();
+
+    private static final Map<String, PolicyMetrics> POLICIES = new ConcurrentHashMap<>();
+
+    private final String policy;
+
+    private final MetricRegistry registry;
+
+    private final Timer checks;
+
+    private final Timer batchChecks;
+
+    private final Timer transforms;
+
+    // permission -> counters indexed by Access ordinal, there are only a handful of permissions
+    private final Map<String, Counter[]> verdicts = new ConcurrentHashMap<>();
+
+    // indexed by PrincipalClass ordinal
+    private final Counter[] principals;
+
+    private PolicyMetrics(String policy) {
+        this.policy = policy;
+        registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        checks = registry.timer(NAME.resolve("check").tagged("policy", policy),
+                () -> new Timer(new LatencyReservoir()));
+        batchChecks = registry.timer(NAME.resolve("check").resolve("batch").tagged("policy", policy),
+                () -> new Timer(new LatencyReservoir()));
+        transforms = registry.timer(NAME.resolve("transform").tagged("policy", policy),
+                () -> new Timer(new LatencyReservoir()));
+        PrincipalClass[] classes = PrincipalClass.values();
+        principals = new Counter[classes.length];
+        for (PrincipalClass c : classes) {
+            principals[c.ordinal()] = registry.counter(
+                    NAME.resolve("transform").resolve("principal").tagged("policy", policy, "class", c.name()));
+        }
+    }
+
+    /**
+     * Returns the metrics of the named policy, shared by all its instances.
+     */
+    public static PolicyMetrics of(String policy) {
+        return POLICIES.computeIfAbsent(policy, PolicyMetrics::new);
+    }
+
+    /**
+     * Records a permission check started at {@code startNanos} and returns its verdict.
+     */
+    public Access checked(long startNanos, String permission, Access access) {
+        checks.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        verdictCounters(permission)[access.ordinal()].inc();
+        return access;
+    }
+
+    /**
+     * Records a batch check started at {@code startNanos}, which decided {@code granted} and {@code denied} of the
+     * {@code evaluated} documents.
+     */
+    public void batchChecked(long startNanos, String permission, int evaluated, int granted, int denied) {
+        batchChecks.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        Counter[] counters = verdictCounters(permission);
+        counters[Access.GRANT.ordinal()].inc(granted);
+        counters[Access.DENY.ordinal()].inc(denied);
+        counters[Access.UNKNOWN.ordinal()].inc(evaluated - granted - denied);
+    }
+
+    /**
+     * Records a query transformation started at {@code startNanos} and returns the transformed query.
+     */
+    public SQLQuery transformed(long startNanos, NuxeoPrincipal principal, SQLQuery query) {
+        transforms.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        principals[classOf(principal).ordinal()].inc();
+        return query;
+    }
+
+    protected Counter[] verdictCounters(String permission) {
+        String key = permission == null ? "" : permission;
+        Counter[] counters = verdicts.get(key);
+        if (counters == null) {
+            // first check for this permission only
+            counters = verdicts.computeIfAbsent(key, this::createVerdictCounters);
+        }
+        return counters;
+    }
+
+    private Counter[] createVerdictCounters(String permission) {
+        Counter[] counters = new Counter[ACCESSES.length];
+        for (Access access : ACCESSES) {
+            counters[access.ordinal()] = registry.counter(NAME.resolve("verdict")
+                                                              .tagged("policy", policy, "permission", permission,
+                                                                      "access", access.name()));
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the class of the principal, {@code UNRESTRICTED} for the principals bypassing the policies as configured,
+     * see {@link Entitlements#isUnrestricted()}.
+     */
+    public static PrincipalClass classOf(NuxeoPrincipal principal) {
+        if (principal instanceof SystemPrincipal) {
+            return PrincipalClass.SYSTEM;
+        }
+        // a cache hit, the transformers have just looked the entitlements up
+        if (Entitlements.of(principal).isUnrestricted()) {
+            return PrincipalClass.UNRESTRICTED;
+        }
+        return principal.isAnonymous() ? PrincipalClass.ANONYMOUS : PrincipalClass.USER;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.lifecycle.LifeCycle;
+import org.nuxeo.ecm.core.lifecycle.LifeCycleService;
+import org.nuxeo.ecm.core.lifecycle.LifeCycleState;
+import org.nuxeo.ecm.core.query.sql.model.Expression;
+import org.nuxeo.ecm.core.query.sql.model.LiteralList;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * The lifecycle restrictions as positive filters, {@code ecm:primaryType <> 'File' OR ecm:currentLifeCycleState IN
+ * ('approved', ...)}, instead of {@code NOT (ecm:primaryType = 'File' AND ecm:currentLifeCycleState <> 'approved')}.
+ * <p>
+ * The allowed states are the states of the type lifecycle that the policy rule does not deny, listed once at startup
+ * from the {@code LifeCycleService}, over the lifecycles of the type and its subtypes, see {@link TypeIndex}. The
+ * database can then use its index on the lifecycle state instead of scanning for the negation. Enabled by the
+ * {@value #ENABLED_PROPERTY} property, the filters are part of the {@link PolicyConfig} they are computed from and the
+ * transformers keep the NOT form when a type has no filter.
+ */
+public final class PositiveStateFilters {
+
+    private static final Log log = LogFactory.getLog(PositiveStateFilters.class);
+
+    public static final String ENABLED_PROPERTY = "org.nuxeo.sample.lifecycle.positiveFilters";
+
+    private PositiveStateFilters() {
+    }
+
+    /**
+     * Computes the filters of the lifecycle and archived policies from the deployed types and lifecycles, and the
+     * types and states of the configuration, to install with {@link PolicyConfig#withPositiveFilters}.
+     */
+    public static Map<String, Predicate> compute(PolicyConfig config) {
+        SchemaManager schemaManager = Framework.getService(SchemaManager.class);
+        LifeCycleService lifeCycleService = Framework.getService(LifeCycleService.class);
+        Map<String, Predicate> computed = new HashMap<>();
+        compute(computed, schemaManager, lifeCycleService, PolicyConfig.FILE_TYPE, config.getLifeCycleTypes(),
+                (type, state) -> LifeCycleSecurityPolicy.isDenied(config, type, state));
+        compute(computed, schemaManager, lifeCycleService, PolicyConfig.CUSTOM_FILE_TYPE, config.getArchivedTypes(),
+                (type, state) -> ArchivedSecurityPolicy.isDenied(config, type, state));
+        return computed;
+    }
+
+    private static void compute(Map<String, Predicate> computed, SchemaManager schemaManager,
+            LifeCycleService lifeCycleService, String type, List<String> types, BiPredicate<String, String> denied) {
+        if (schemaManager.getDocumentType(type) == null) {
+            return;
+        }
+        // the types the rule applies to, the same rule for all of them but their lifecycles may have other states
+        Set<String> allowed = new LinkedHashSet<>();
+        for (String t : types) {
+            String lifeCycleName = lifeCycleService.getLifeCycleNameFor(t);
+            LifeCycle lifeCycle = lifeCycleName == null ? null : lifeCycleService.getLifeCycleByName(lifeCycleName);
+            if (lifeCycle == null) {
+                log.warn("No lifecycle for " + t + ", keeping the NOT filter for " + type);
+                return;
+            }
+            for (LifeCycleState state : lifeCycle.getStates()) {
+                if (!denied.test(t, state.getName())) {
+                    allowed.add(state.getName());
+                }
+            }
+        }
+        computed.put(type, build(types, new ArrayList<>(allowed)));
+    }
+
+    /**
+     * Returns {@code ecm:primaryType <> type OR ecm:currentLifeCycleState IN (allowed states)}.
+     */
+    public static Predicate build(String type, List<String> allowedStates) {
+        return build(List.of(type), allowedStates);
+    }
+
+    /**
+     * Returns {@code ecm:primaryType NOT IN (types) OR ecm:currentLifeCycleState IN (allowed states)}.
+     */
+    public static Predicate build(List<String> types, List<String> allowedStates) {
+        Expression otherType = TypeIndex.primaryTypeNotIn(types);
+        if (allowedStates.isEmpty()) {
+            return new Predicate(otherType.lvalue, otherType.operator, otherType.rvalue);
+        }
+        Expression allowed;
+        if (allowedStates.size() == 1) {
+            allowed = new Expression(new Reference("ecm:currentLifeCycleState"), Operator.EQ,
+                    new StringLiteral(allowedStates.get(0)));
+        } else {
+            LiteralList list = new LiteralList();
+            for (String state : allowedStates) {
+                list.add(new StringLiteral(state));
+            }
+            allowed = new Expression(new Reference("ecm:currentLifeCycleState"), Operator.IN, list);
+        }
+        return new Predicate(otherType, Operator.OR, allowed);
+    }
+
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nuxeo.ecm.core.query.sql.model.Expression;
+import org.nuxeo.ecm.core.query.sql.model.MultiExpression;
+import org.nuxeo.ecm.core.query.sql.model.Operand;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.WhereClause;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.ecm.core.schema.types.Field;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Rewrites the WHERE clause left by the security transformers into an equivalent, flatter one.
+ * <p>
+ * Each policy wraps its restriction in its own {@code AND NOT (ecm:primaryType = 'File' AND ...)}, so the chained
+ * clause nests deeper with every policy and repeats the type test. The normalizer:
+ * <ul>
+ * <li>pushes the NOTs down to the comparisons (De Morgan), inverting them when that is safe: {@code NOT (a = b)}
+ * becomes {@code a <> b} on a single valued property,</li>
+ * <li>flattens the AND and OR chains and drops the duplicate terms,</li>
+ * <li>factors a term common to several OR terms of an AND: {@code (t OR a) AND (t OR b)} becomes
+ * {@code t OR (a AND b)}, which merges the {@code ecm:primaryType <> 'File'} tests of the policies,</li>
+ * <li>drops {@code x IS NULL OR x IS NOT NULL} and the {@code x IS NOT NULL} implied by a comparison on x.</li>
+ * </ul>
+ * The rewrites keep the SQL three-valued semantics of VCS, not the DBS ones (see {@link NormalizingSecurityPolicy}):
+ * once the NOTs are pushed down to the leaves, a row is returned when the clause is TRUE, and AND/OR only depend on
+ * which of their terms are TRUE. NOTs in front of list properties, functions or unknown fields are left in place, NXQL
+ * gives them their own meaning.
+ */
+public class PredicateNormalizer {
+
+    // the ecm: properties holding a single value, any other one is left alone
+    protected static final Set<String> SCALAR_SYSTEM_PROPERTIES = Set.of("ecm:uuid", "ecm:name", "ecm:parentId",
+            "ecm:primaryType", "ecm:currentLifeCycleState", "ecm:isVersion", "ecm:isProxy", "ecm:isCheckedIn",
+            "ecm:isTrashed", "ecm:isLatestVersion", "ecm:pos");
+
+    protected static final Map<Operator, Operator> INVERSES = new HashMap<>();
+
+    static {
+        inverse(Operator.EQ, Operator.NOTEQ);
+        inverse(Operator.LT, Operator.GTEQ);
+        inverse(Operator.GT, Operator.LTEQ);
+        inverse(Operator.IN, Operator.NOTIN);
+        inverse(Operator.LIKE, Operator.NOTLIKE);
+        inverse(Operator.ILIKE, Operator.NOTILIKE);
+        inverse(Operator.BETWEEN, Operator.NOTBETWEEN);
+        inverse(Operator.ISNULL, Operator.ISNOTNULL);
+    }
+
+    private static void inverse(Operator op, Operator inverse) {
+        INVERSES.put(op, inverse);
+        INVERSES.put(inverse, op);
+    }
+
+    // stands for a clause always TRUE while simplifying, never returned
+    protected static final Expression TRUE = new Expression(null, null, null);
+
+    // field name -> whether it holds a single value
+    protected final Map<String, Boolean> scalarFields = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the query with its WHERE clause normalized, the same query if there is nothing to do.
+     */
+    public SQLQuery normalize(SQLQuery query) {
+        WhereClause where = query.where;
+        if (where == null || where.predicate == null) {
+            return query;
+        }
+        Expression normalized = normalize(where.predicate);
+        if (normalized == where.predicate) {
+            return query;
+        }
+        WhereClause clause = normalized == TRUE ? null : new WhereClause(toPredicate(normalized));
+        return new SQLQuery(query.select, query.from, clause, query.groupBy, query.having, query.orderBy, query.limit,
+                query.offset);
+    }
+
+    /**
+     * Returns the normalized expression, {@link #TRUE} if it always holds.
+     */
+    protected Expression normalize(Expression expr) {
+        return simplify(pushNot(expr, false));
+    }
+
+    // negation normal form: NOTs only remain in front of the leaves that can't be inverted
+    protected Expression pushNot(Expression expr, boolean negated) {
+        Operator op = expr.operator;
+        if (expr instanceof MultiExpression) {
+            return negated ? new Predicate(expr, Operator.NOT, null) : expr;
+        }
+        if ((op == Operator.AND || op == Operator.OR) && expr.lvalue instanceof Expression
+                && expr.rvalue instanceof Expression) {
+            Expression left = pushNot((Expression) expr.lvalue, negated);
+            Expression right = pushNot((Expression) expr.rvalue, negated);
+            Operator junction = negated ? (op == Operator.AND ? Operator.OR : Operator.AND) : op;
+            if (!negated && left == expr.lvalue && right == expr.rvalue) {
+                return expr;
+            }
+            return new Predicate(left, junction, right);
+        }
+        if (op == Operator.NOT && expr.lvalue instanceof Expression) {
+            return pushNot((Expression) expr.lvalue, !negated);
+        }
+        if (!negated) {
+            return expr;
+        }
+        Operator inverse = INVERSES.get(op);
+        if (inverse != null && expr.lvalue instanceof Reference && isScalar(((Reference) expr.lvalue).name)) {
+            return new Predicate(expr.lvalue, inverse, expr.rvalue);
+        }
+        return new Predicate(expr, Operator.NOT, null);
+    }
+
+    protected Expression simplify(Expression expr) {
+        Operator op = expr.operator;
+        if (!isJunction(expr)) {
+            return expr;
+        }
+        List<Expression> terms = new ArrayList<>();
+        if (collect(expr, op, terms)) {
+            // an OR with a TRUE term
+            return TRUE;
+        }
+        if (op == Operator.OR) {
+            if (hasNullTautology(terms)) {
+                return TRUE;
+            }
+        } else {
+            dropImpliedNotNull(terms);
+        }
+        absorb(terms, op);
+        if (op == Operator.AND) {
+            while (factor(terms)) {
+                absorb(terms, op);
+            }
+        }
+        if (terms.isEmpty()) {
+            return TRUE;
+        }
+        return join(terms, op);
+    }
+
+    // collects the simplified terms of a chain of the same junction, returns true if one of them makes it TRUE
+    protected boolean collect(Expression expr, Operator op, List<Expression> terms) {
+        if (isJunction(expr) && expr.operator == op) {
+            return collect((Expression) expr.lvalue, op, terms) || collect((Expression) expr.rvalue, op, terms);
+        }
+        Expression term = simplify(expr);
+        if (term == TRUE) {
+            // a TRUE term decides an OR and is dropped from an AND
+            return op == Operator.OR;
+        }
+        if (isJunction(term) && term.operator == op) {
+            return collect(term, op, terms);
+        }
+        if (indexOf(terms, term) < 0) {
+            terms.add(term);
+        }
+        return false;
+    }
+
+    // x IS NULL OR x IS NOT NULL
+    protected boolean hasNullTautology(List<Expression> terms) {
+        for (Expression term : terms) {
+            if (term.operator == Operator.ISNULL) {
+                for (Expression other : terms) {
+                    if (other.operator == Operator.ISNOTNULL && Objects.equals(term.lvalue, other.lvalue)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // x IS NOT NULL AND x = 'a', the comparison can't be TRUE on a NULL
+    protected void dropImpliedNotNull(List<Expression> terms) {
+        terms.removeIf(term -> term.operator == Operator.ISNOTNULL && term.lvalue instanceof Reference
+                && isScalar(((Reference) term.lvalue).name)
+                && terms.stream().anyMatch(other -> isComparisonOn(other, term.lvalue)));
+    }
+
+    protected boolean isComparisonOn(Expression expr, Operand ref) {
+        Operator op = expr.operator;
+        return (op == Operator.EQ || op == Operator.NOTEQ || op == Operator.LT || op == Operator.GT
+                || op == Operator.LTEQ || op == Operator.GTEQ || op == Operator.IN || op == Operator.LIKE
+                || op == Operator.ILIKE) && Objects.equals(expr.lvalue, ref);
+    }
+
+    // a AND (a OR b) is a, a OR (a AND b) is a
+    protected void absorb(List<Expression> terms, Operator op) {
+        Operator inner = op == Operator.AND ? Operator.OR : Operator.AND;
+        terms.removeIf(term -> isJunction(term) && term.operator == inner
+                && terms.stream().anyMatch(other -> other != term && indexOf(termsOf(term, inner), other) >= 0));
+    }
+
+    // (t OR a) AND (t OR b) AND c becomes (t OR (a AND b)) AND c, for the term t shared by the most OR terms
+    protected boolean factor(List<Expression> terms) {
+        List<List<Expression>> disjuncts = new ArrayList<>(terms.size());
+        for (Expression term : terms) {
+            disjuncts.add(termsOf(term, Operator.OR));
+        }
+        Expression common = null;
+        int best = 1;
+        for (List<Expression> candidates : disjuncts) {
+            if (candidates.size() < 2) {
+                continue;
+            }
+            for (Expression candidate : candidates) {
+                int count = 0;
+                for (List<Expression> other : disjuncts) {
+                    if (other.size() > 1 && indexOf(other, candidate) >= 0) {
+                        count++;
+                    }
+                }
+                if (count > best) {
+                    best = count;
+                    common = candidate;
+                }
+            }
+        }
+        if (common == null) {
+            return false;
+        }
+        List<Expression> rests = new ArrayList<>();
+        int position = -1;
+        for (int i = terms.size() - 1; i >= 0; i--) {
+            List<Expression> candidates = disjuncts.get(i);
+            int index = candidates.size() > 1 ? indexOf(candidates, common) : -1;
+            if (index >= 0) {
+                List<Expression> rest = new ArrayList<>(candidates);
+                rest.remove(index);
+                rests.add(0, join(rest, Operator.OR));
+                terms.remove(i);
+                position = i;
+            }
+        }
+        Expression factored = simplify(new Predicate(common, Operator.OR, join(rests, Operator.AND)));
+        if (factored != TRUE) {
+            terms.addAll(position, termsOf(factored, Operator.AND));
+        }
+        return true;
+    }
+
+    protected static List<Expression> termsOf(Expression expr, Operator op) {
+        List<Expression> terms = new ArrayList<>();
+        addTerms(expr, op, terms);
+        return terms;
+    }
+
+    private static void addTerms(Expression expr, Operator op, List<Expression> terms) {
+        if (isJunction(expr) && expr.operator == op) {
+            addTerms((Expression) expr.lvalue, op, terms);
+            addTerms((Expression) expr.rvalue, op, terms);
+        } else {
+            terms.add(expr);
+        }
+    }
+
+    // left deep, as the parser builds a AND b AND c
+    protected static Expression join(List<Expression> terms, Operator op) {
+        Expression expr = terms.get(0);
+        for (int i = 1; i < terms.size(); i++) {
+            expr = new Predicate(expr, op, terms.get(i));
+        }
+        return expr;
+    }
+
+    protected static boolean isJunction(Expression expr) {
+        return (expr.operator == Operator.AND || expr.operator == Operator.OR) && !(expr instanceof MultiExpression)
+                && expr.lvalue instanceof Expression && expr.rvalue instanceof Expression;
+    }
+
+    protected static int indexOf(List<Expression> terms, Expression expr) {
+        for (int i = 0; i < terms.size(); i++) {
+            if (same(terms.get(i), expr)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // structural equality, whether the parser built a Predicate or a policy an Expression
+    protected static boolean same(Expression a, Expression b) {
+        if (a == b) {
+            return true;
+        }
+        return a.operator == b.operator && sameOperand(a.lvalue, b.lvalue) && sameOperand(a.rvalue, b.rvalue);
+    }
+
+    private static boolean sameOperand(Operand a, Operand b) {
+        if (a instanceof Expression && b instanceof Expression) {
+            return same((Expression) a, (Expression) b);
+        }
+        return Objects.equals(a, b);
+    }
+
+    protected static Predicate toPredicate(Expression expr) {
+        if (expr instanceof Predicate) {
+            return (Predicate) expr;
+        }
+        return new Predicate(expr.lvalue, expr.operator, expr.rvalue);
+    }
+
+    /**
+     * Whether the property holds a single value, so that {@code NOT (x = 'a')} and {@code x <> 'a'} are the same.
+     */
+    protected boolean isScalar(String name) {
+        if (name.startsWith("ecm:")) {
+            return SCALAR_SYSTEM_PROPERTIES.contains(name);
+        }
+        if (name.indexOf('/') >= 0) {
+            return false;
+        }
+        return scalarFields.computeIfAbsent(name, n -> {
+            Field field = Framework.getService(SchemaManager.class).getField(n);
+            return Boolean.valueOf(field != null && !field.getType().isListType());
+        }).booleanValue();
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.PartialList;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+/**
+ * Brings the existing documents of a repository in line with what a listener maintains for the new ones, without
+ * starving the production traffic.
+ * <p>
+ * Documents are walked by increasing id, {@code <prefix>.batchSize} at a time, each batch in its own transaction
+ * followed by a {@code <prefix>.pauseMillis} pause. The last id done is kept in the key/value store after each commit:
+ * a suspended, failed or restarted backfill resumes after it, and a completed one clears it. Subclasses only save the
+ * documents they change, so running a backfill again is cheap.
+ */
+public abstract class ResumableBackfillWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(ResumableBackfillWork.class);
+
+    public static final String CATEGORY = "securityPolicyBackfill";
+
+    protected static final String KV_STORE = "default";
+
+    // the properties are <prefix>.batchSize and <prefix>.pauseMillis, the cursor <prefix>.cursor.<repository>
+    protected final String prefix;
+
+    protected ResumableBackfillWork(String prefix, String repositoryName) {
+        super(prefix + ":" + repositoryName);
+        this.prefix = prefix;
+        this.repositoryName = repositoryName;
+    }
+
+    /**
+     * The NXQL query selecting the documents to walk, with a {@code %s} placeholder where the keyset condition goes
+     * and ordered by {@code ecm:uuid}.
+     */
+    protected abstract String getQuery();
+
+    /**
+     * Updates and saves the document if needed, returns {@code true} if it was changed.
+     */
+    protected abstract boolean update(DocumentModel doc);
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public void work() {
+        int batchSize = Integer.parseInt(Framework.getProperty(prefix + ".batchSize", "500"));
+        long pause = Long.parseLong(Framework.getProperty(prefix + ".pauseMillis", "200"));
+        KeyValueStore store = Framework.getService(KeyValueService.class).getKeyValueStore(KV_STORE);
+        String cursorKey = prefix + ".cursor." + repositoryName;
+        String cursor = store.getString(cursorKey);
+        if (cursor != null) {
+            log.info("Resuming " + getTitle() + " after " + cursor);
+        }
+
+        openSystemSession();
+        long scanned = 0;
+        long updated = 0;
+        while (!isSuspending()) {
+            List<String> ids = nextIds(cursor, batchSize);
+            if (ids.isEmpty()) {
+                store.put(cursorKey, (String) null);
+                log.info(getTitle() + " done, " + updated + " documents updated");
+                return;
+            }
+            updated += update(ids);
+            session.save();
+            commitOrRollbackTransaction();
+
+            cursor = ids.get(ids.size() - 1);
+            store.put(cursorKey, cursor);
+            scanned += ids.size();
+            setStatus(scanned + " scanned, " + updated + " updated");
+
+            pause(pause);
+            startTransaction();
+        }
+        // the cursor is saved, scheduling the work again resumes from it
+        suspended();
+    }
+
+    // keyset pagination, the next page starts after the last id of the previous one whatever was changed meanwhile
+    protected List<String> nextIds(String cursor, int batchSize) {
+        String after = cursor == null ? "" : " AND ecm:uuid > " + NXQL.escapeString(cursor);
+        PartialList<Map<String, Serializable>> rows = session.queryProjection(String.format(getQuery(), after),
+                batchSize, 0);
+        List<String> ids = new ArrayList<>(rows.size());
+        for (Map<String, Serializable> row : rows) {
+            ids.add((String) row.get(NXQL.ECM_UUID));
+        }
+        return ids;
+    }
+
+    protected int update(List<String> ids) {
+        DocumentRef[] refs = ids.stream().map(IdRef::new).toArray(DocumentRef[]::new);
+        int updated = 0;
+        for (DocumentModel doc : session.getDocuments(refs)) {
+            if (update(doc)) {
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    protected void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException(e);
+        }
+    }
+
+}
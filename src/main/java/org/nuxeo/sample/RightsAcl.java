@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import static org.nuxeo.sample.DcRightsSecurityPolicy.DC_RIGHTS_FIELD;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.security.ACE;
+import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
+import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
+
+/**
+ * The dc:rights restriction projected into an ACL of each document, so that listings go through the repository read
+ * ACL optimization instead of a {@code dc:rights IN (...)} filter on the dublincore table.
+ * <p>
+ * For a mapped dc:rights value the {@value #ACL_NAME} ACL comes first and grants everything to the mapped groups, then
+ * denies everything to everyone else: the same GRANT/DENY as {@link DcRightsSecurityPolicy}, before the other ACLs.
+ * Documents with no or an unmapped value get no such ACL and are left to the other ACLs, as the policy leaves them.
+ * Unlike the policy decision the ACL of a folder is inherited: its children without a mapped value of their own are
+ * restricted to the folder groups too.
+ * <p>
+ * The projection is opt-in, through the {@value #ENABLED_PROPERTY} property read with the {@link PolicyConfig}: it turns
+ * the rights policy and its query transformer into no-ops, and {@link RightsAclListener} keeps the ACL up to date when
+ * documents are created or saved. {@link RightsAclBackfillWork} sets it on the existing documents: run it before
+ * setting the property, then once more after for the documents saved meanwhile, and again after the mapping changes.
+ * The ACP is written unrestricted, saving a document doesn't need the WriteSecurity permission.
+ */
+public final class RightsAcl {
+
+    public static final String ACL_NAME = "dcrights";
+
+    public static final String ENABLED_PROPERTY = "org.nuxeo.sample.rights.aclProjection";
+
+    private RightsAcl() {
+    }
+
+    public static boolean isEnabled() {
+        return PolicyConfig.current().isRightsAclProjection();
+    }
+
+    /**
+     * The ACL for this dc:rights value, {@code null} if the document should have none.
+     */
+    public static ACL build(String rights, RightsTable table) {
+        List<String> groups = rights == null ? null : table.groupsFor(rights);
+        if (groups == null) {
+            return null;
+        }
+        ACL acl = new ACLImpl(ACL_NAME);
+        for (String group : groups) {
+            acl.add(new ACE(group, SecurityConstants.EVERYTHING, true));
+        }
+        acl.add(new ACE(SecurityConstants.EVERYONE, SecurityConstants.EVERYTHING, false));
+        return acl;
+    }
+
+    /**
+     * Sets, replaces or removes the ACL of the document so that it matches its dc:rights value, returns {@code true}
+     * if the ACP was changed. Does nothing on proxies and versions. The session must be allowed to read and write the
+     * ACP, see {@link RightsAclListener}.
+     */
+    public static boolean update(CoreSession session, DocumentModel doc) {
+        if (doc.isProxy() || doc.isVersion()) {
+            return false;
+        }
+        ACL wanted = build((String) doc.getPropertyValue(DC_RIGHTS_FIELD), RightsTable.current());
+        ACP acp = session.getACP(doc.getRef());
+        ACL current = acp.getACL(ACL_NAME);
+        if (wanted == null ? current == null : current != null && sameEntries(current, wanted)) {
+            return false;
+        }
+        acp.removeACL(ACL_NAME);
+        if (wanted != null) {
+            acp.addACL(0, wanted);
+        }
+        session.setACP(doc.getRef(), acp, true);
+        return true;
+    }
+
+    protected static boolean sameEntries(ACL a, ACL b) {
+        return new ArrayList<ACE>(a).equals(new ArrayList<ACE>(b));
+    }
+
+}
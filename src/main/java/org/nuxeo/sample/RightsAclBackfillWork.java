@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Sets the {@value RightsAcl#ACL_NAME} ACL on the existing documents of a repository, for the documents created before
+ * {@link RightsAclListener} was deployed or after the rights mapping changed.
+ * <p>
+ * Runs in batches of {@value #BATCH_SIZE_PROPERTY} with a {@value #PAUSE_PROPERTY} pause between them and resumes where
+ * it stopped, see {@link ResumableBackfillWork}.
+ */
+public class RightsAclBackfillWork extends ResumableBackfillWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String PREFIX = "org.nuxeo.sample.rights.backfill";
+
+    public static final String BATCH_SIZE_PROPERTY = PREFIX + ".batchSize";
+
+    public static final String PAUSE_PROPERTY = PREFIX + ".pauseMillis";
+
+    // every live document may carry a dc:rights value, whatever its type
+    protected static final String QUERY = "SELECT ecm:uuid FROM Document WHERE ecm:isProxy = 0 AND ecm:isVersion = 0%s"
+            + " ORDER BY ecm:uuid";
+
+    public RightsAclBackfillWork(String repositoryName) {
+        super(PREFIX, repositoryName);
+    }
+
+    /**
+     * Schedules the backfill of the repository, unless it is already scheduled or running.
+     */
+    public static void schedule(String repositoryName) {
+        Framework.getService(WorkManager.class)
+                 .schedule(new RightsAclBackfillWork(repositoryName), WorkManager.Scheduling.IF_NOT_RUNNING_OR_SCHEDULED);
+    }
+
+    @Override
+    public String getTitle() {
+        return "dc:rights ACL backfill " + repositoryName;
+    }
+
+    @Override
+    protected String getQuery() {
+        return QUERY;
+    }
+
+    @Override
+    protected boolean update(DocumentModel doc) {
+        return RightsAcl.update(session, doc);
+    }
+
+}
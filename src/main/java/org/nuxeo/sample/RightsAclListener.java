@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+
+/**
+ * Projects the dc:rights value into the {@value RightsAcl#ACL_NAME} ACL after a document is created, copied or saved,
+ * in the same transaction, when the projection is enabled, see {@link RightsAcl#isEnabled()}. The ACP is only written
+ * when the projected ACL differs from the stored one, in an unrestricted session: the user saving the document may not
+ * have the WriteSecurity permission.
+ */
+public class RightsAclListener implements EventListener {
+
+    @Override
+    public void handleEvent(Event event) {
+        String name = event.getName();
+        if (!DocumentEventTypes.DOCUMENT_CREATED.equals(name)
+                && !DocumentEventTypes.DOCUMENT_CREATED_BY_COPY.equals(name)
+                && !DocumentEventTypes.DOCUMENT_UPDATED.equals(name)) {
+            return;
+        }
+        // without the projection the ACL would restrict the children of a folder, which the policy doesn't
+        if (!RightsAcl.isEnabled()) {
+            return;
+        }
+        EventContext context = event.getContext();
+        if (context instanceof DocumentEventContext) {
+            DocumentEventContext docContext = (DocumentEventContext) context;
+            DocumentModel doc = docContext.getSourceDocument();
+            new UnrestrictedSessionRunner(docContext.getCoreSession()) {
+                @Override
+                public void run() {
+                    RightsAcl.update(session, doc);
+                }
+            }.runUnrestricted();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.runtime.model.Descriptor;
+
+/**
+ * Maps a dc:rights value to the groups allowed to read the documents carrying it.
+ *
+ * <pre>
+ * &lt;rights value="GROUP1"&gt;
+ *   &lt;group&gt;GROUP1&lt;/group&gt;
+ * &lt;/rights&gt;
+ * </pre>
+ *
+ * A later contribution for the same value replaces the previous one.
+ */
+@XObject("rights")
+public class RightsMappingDescriptor implements Descriptor {
+
+    @XNode("@value")
+    protected String value;
+
+    @XNodeList(value = "group", type = ArrayList.class, componentType = String.class)
+    protected List<String> groups = new ArrayList<>();
+
+    @Override
+    public String getId() {
+        return value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public List<String> getGroups() {
+        return groups;
+    }
+
+}
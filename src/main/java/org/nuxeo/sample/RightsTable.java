@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import static org.nuxeo.sample.DcRightsSecurityPolicy.DC_RIGHTS_FIELD;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.query.sql.model.Expression;
+import org.nuxeo.ecm.core.query.sql.model.LiteralList;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
+
+/**
+ * The dc:rights to groups mapping, compiled from the {@code rightsMappings} contributions.
+ * <p>
+ * Each group gets a bit index, each rights value the bitset of the groups allowed to read it. A principal is reduced to
+ * the bitset of its groups once (and cached, see {@link Entitlements}), then deciding on a document is a hash
+ * lookup of its dc:rights value and a bitset intersection, whatever the number of labels.
+ */
+public class RightsTable {
+
+    public static final BitSet NO_GROUPS = new BitSet();
+
+    // the mapping hardcoded before it was contributed, used when the component is not deployed
+    public static final RightsTable DEFAULT = compile(defaultMapping());
+
+    // group name -> bit index
+    protected final Map<String, Integer> groupIndex;
+
+    // dc:rights value -> groups allowed to read it
+    protected final Map<String, BitSet> rightsGroups;
+
+    // principal groups -> NXQL filter, there are only as many entries as distinct group combinations
+    protected final Map<BitSet, Predicate> filters = new ConcurrentHashMap<>();
+
+    protected RightsTable(Map<String, Integer> groupIndex, Map<String, BitSet> rightsGroups) {
+        this.groupIndex = groupIndex;
+        this.rightsGroups = rightsGroups;
+    }
+
+    public static RightsTable current() {
+        return PolicyConfig.current().getRights();
+    }
+
+    public static void install(RightsTable table) {
+        PolicyConfig.update(config -> config.withRights(table));
+    }
+
+    public static RightsTable compile(Map<String, List<String>> mapping) {
+        Map<String, Integer> groupIndex = new LinkedHashMap<>();
+        Map<String, BitSet> rightsGroups = new LinkedHashMap<>();
+        mapping.forEach((rights, groups) -> {
+            BitSet bits = new BitSet();
+            for (String group : groups) {
+                bits.set(groupIndex.computeIfAbsent(group, g -> groupIndex.size()));
+            }
+            rightsGroups.put(rights, bits);
+        });
+        return new RightsTable(Collections.unmodifiableMap(groupIndex), Collections.unmodifiableMap(rightsGroups));
+    }
+
+    public static RightsTable compile(List<RightsMappingDescriptor> descriptors) {
+        Map<String, List<String>> mapping = new LinkedHashMap<>();
+        for (RightsMappingDescriptor descriptor : descriptors) {
+            mapping.put(descriptor.getValue(), descriptor.getGroups());
+        }
+        return compile(mapping);
+    }
+
+    protected static Map<String, List<String>> defaultMapping() {
+        Map<String, List<String>> mapping = new LinkedHashMap<>();
+        mapping.put(DcRightsSecurityPolicy.RIGHTS_DEFAULT, List.of(DcRightsSecurityPolicy.PRINCIPAL_GROUP1));
+        mapping.put(DcRightsSecurityPolicy.RIGHTS_GROUP1, List.of(DcRightsSecurityPolicy.PRINCIPAL_GROUP1));
+        mapping.put(DcRightsSecurityPolicy.RIGHTS_GROUP2, List.of(DcRightsSecurityPolicy.PRINCIPAL_GROUP2));
+        mapping.put(DcRightsSecurityPolicy.RIGHTS_GROUP3, List.of(DcRightsSecurityPolicy.PRINCIPAL_GROUP3));
+        return mapping;
+    }
+
+    /**
+     * Returns the bitset of the mapped groups the principal belongs to, {@link #NO_GROUPS} if none.
+     */
+    public BitSet groupsOf(NuxeoPrincipal principal) {
+        if (principal == null) {
+            return NO_GROUPS;
+        }
+        BitSet bits = null;
+        for (Map.Entry<String, Integer> entry : groupIndex.entrySet()) {
+            if (principal.isMemberOf(entry.getKey())) {
+                if (bits == null) {
+                    bits = new BitSet(groupIndex.size());
+                }
+                bits.set(entry.getValue());
+            }
+        }
+        return bits == null ? NO_GROUPS : bits;
+    }
+
+    /**
+     * GRANT if one of the principal groups may read documents with this dc:rights value, DENY if none may, UNKNOWN if
+     * the value is not mapped.
+     */
+    public Access decide(String rights, BitSet principalGroups) {
+        BitSet allowed = rightsGroups.get(rights);
+        if (allowed == null) {
+            return Access.UNKNOWN;
+        }
+        return allowed.intersects(principalGroups) ? Access.GRANT : Access.DENY;
+    }
+
+    /**
+     * Returns the names of the groups allowed to read documents with this dc:rights value, {@code null} if the value is
+     * not mapped.
+     */
+    public List<String> groupsFor(String rights) {
+        BitSet allowed = rightsGroups.get(rights);
+        if (allowed == null) {
+            return null;
+        }
+        List<String> groups = new ArrayList<>(allowed.cardinality());
+        groupIndex.forEach((group, index) -> {
+            if (allowed.get(index.intValue())) {
+                groups.add(group);
+            }
+        });
+        return groups;
+    }
+
+    /**
+     * Returns {@code dc:rights IS NULL OR dc:rights IN (...)} listing every value the principal groups may read, or
+     * {@code null} if they may not read any.
+     */
+    public Predicate filterFor(BitSet principalGroups) {
+        if (principalGroups.isEmpty()) {
+            return null;
+        }
+        return filters.computeIfAbsent(principalGroups, this::buildFilter);
+    }
+
+    protected Predicate buildFilter(BitSet principalGroups) {
+        List<String> labels = new ArrayList<>();
+        rightsGroups.forEach((rights, allowed) -> {
+            if (allowed.intersects(principalGroups)) {
+                labels.add(rights);
+            }
+        });
+        if (labels.isEmpty()) {
+            return null;
+        }
+        Expression isNull = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.ISNULL, null);
+        Expression entitled;
+        if (labels.size() == 1) {
+            entitled = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.EQ, new StringLiteral(labels.get(0)));
+        } else {
+            LiteralList list = new LiteralList();
+            for (String label : labels) {
+                list.add(new StringLiteral(label));
+            }
+            entitled = new Expression(new Reference(DC_RIGHTS_FIELD), Operator.IN, list);
+        }
+        return new Predicate(isNull, Operator.OR, entitled);
+    }
+
+    public Map<String, BitSet> getRightsGroups() {
+        return rightsGroups;
+    }
+
+    public Map<String, Integer> getGroupIndex() {
+        return groupIndex;
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.runtime.model.Descriptor;
+
+/**
+ * A restriction rule, written in the small language compiled by {@link RuleSet}.
+ *
+ * <pre>
+ * &lt;rule name="archived"&gt;type=CustomFile AND state!=archived -&gt; DENY unless group GROUP1&lt;/rule&gt;
+ * </pre>
+ *
+ * A later contribution with the same name replaces the previous one, {@code remove="true"} removes it.
+ */
+@XObject("rule")
+public class RuleDescriptor implements Descriptor {
+
+    @XNode("@name")
+    protected String name;
+
+    @XNode("")
+    protected String expression;
+
+    @XNode("@remove")
+    protected boolean remove;
+
+    @Override
+    public String getId() {
+        return name;
+    }
+
+    @Override
+    public boolean doesRemove() {
+        return remove;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+}
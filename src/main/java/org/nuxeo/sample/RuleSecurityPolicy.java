@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.ecm.core.query.sql.model.WhereClause;
+import org.nuxeo.ecm.core.security.AbstractSecurityPolicy;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+
+/**
+ * Applies the rules contributed to the {@code rules} extension point, see {@link RuleSet}.
+ * <p>
+ * Registered once, the rules are read from the {@link PolicyConfig} the principal entitlements were computed on, on
+ * every check and query, so that the policy is a no-op until rules are contributed.
+ */
+public class RuleSecurityPolicy extends AbstractSecurityPolicy implements SecurityPolicy {
+
+    private static final Log log = LogFactory.getLog(RuleSecurityPolicy.class);
+
+    // name under which the policy is measured, see PolicyMetrics
+    public static final String POLICY_NAME = "rules";
+
+    protected static final PolicyMetrics METRICS = PolicyMetrics.of(POLICY_NAME);
+
+    @Override
+    public Access checkPermission(Document doc, ACP mergedAcp, NuxeoPrincipal principal, String permission,
+            String[] resolvedPermissions, String[] additionalPrincipals) {
+
+        long start = System.nanoTime();
+        if (RuleSet.current().isEmpty()) {
+            return METRICS.checked(start, permission, Access.UNKNOWN);
+        }
+        // the rule groups are indexed on the rules of the entitlements configuration
+        Entitlements entitlements = Entitlements.of(principal);
+        RuleSet rules = entitlements.config().getRules();
+        try {
+            if (rules.denying(doc, entitlements.getRuleGroups()) != null) {
+                return METRICS.checked(start, permission, Access.DENY);
+            }
+        } catch (Exception e) {
+            // a rule on a property the document doesn't have
+            log.error(e.toString());
+        }
+        return METRICS.checked(start, permission, Access.UNKNOWN);
+    }
+
+    @Override
+    public boolean isRestrictingPermission(String permission) {
+        return !RuleSet.current().isEmpty();
+    }
+
+    @Override
+    public boolean isExpressibleInQuery(String repositoryName) {
+        return true;
+    }
+
+    public static class RuleTransformer implements Transformer {
+
+        private static final long serialVersionUID = 1L;
+
+        // A SQL Query is made whenever a document listing is shown
+        // This transformer changes the SQL query so that the documents denied by the rules are not shown in results
+        @Override
+        public SQLQuery transform(NuxeoPrincipal principal, SQLQuery query) {
+
+            long start = System.nanoTime();
+
+            Entitlements entitlements = Entitlements.of(principal);
+
+            // if user bypasses the policies do nothing, see BypassPrincipals
+            if (entitlements.isUnrestricted()) {
+                return METRICS.transformed(start, principal, query);
+            }
+
+            // precomputed for the exemption groups of the principal, null if no rule applies to it
+            Predicate filter = entitlements.config().getRules().filterFor(entitlements.getRuleGroups());
+            if (filter == null) {
+                return METRICS.transformed(start, principal, query);
+            }
+
+            WhereClause where = query.where;
+            Predicate predicate;
+            if (where == null || where.predicate == null) {
+                predicate = filter;
+            } else {
+                predicate = new Predicate(where.predicate, Operator.AND, filter);
+            }
+            return METRICS.transformed(start, principal, new SQLQuery(query.select, query.from,
+                    new WhereClause(predicate), query.groupBy, query.having, query.orderBy, query.limit, query.offset));
+        }
+    }
+
+    public static final Transformer RULE_TRANSFORMER = new RuleTransformer();
+
+    @Override
+    public Transformer getQueryTransformer(String repositoryName) {
+        return RULE_TRANSFORMER;
+    }
+
+}
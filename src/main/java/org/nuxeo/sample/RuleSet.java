@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.query.sql.model.Expression;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.ecm.core.schema.types.Field;
+import org.nuxeo.ecm.core.schema.types.SimpleType;
+import org.nuxeo.ecm.core.schema.types.Type;
+import org.nuxeo.ecm.core.schema.types.primitives.StringType;
+
+/**
+ * The restriction rules, compiled from the {@code rules} contributions.
+ * <p>
+ * A rule is a conjunction of conditions on the document type, its lifecycle state or a property, a DENY verdict, and
+ * optionally the groups it doesn't apply to:
+ *
+ * <pre>
+ * type=CustomFile AND state!=archived -&gt; DENY unless group GROUP1, GROUP2
+ * ITAR:ITAR_doc='Yes' -&gt; DENY
+ * </pre>
+ *
+ * The property of a condition must be a single valued string, compared like the NXQL literal of the filter: a rule on
+ * another property is rejected when compiled against the {@link SchemaManager}, and never holds otherwise. A
+ * condition on a missing state or property never holds, like in NXQL. Each rule is compiled once into arrays
+ * evaluated without allocating, and into its {@code NOT (...)} NXQL predicate. The exemption groups get a bit index
+ * like the {@link RightsTable} groups, the principal bitset is part of its {@link Entitlements}. A rule that can't be
+ * parsed is logged and left out, the other rules still apply.
+ */
+public class RuleSet {
+
+    private static final Log log = LogFactory.getLog(RuleSet.class);
+
+    public static final RuleSet EMPTY = new RuleSet(new Rule[0], Collections.emptyMap());
+
+    protected static final Pattern RULE = Pattern.compile("(.+?)\\s*->\\s*DENY(?:\\s+unless\\s+group\\s+(.+))?");
+
+    protected static final Pattern AND = Pattern.compile("\\s+AND\\s+");
+
+    protected static final Pattern CONDITION = Pattern.compile("([\\w:/.-]+)\\s*(!=|=)\\s*(?:'([^']*)'|(\\S+))");
+
+    protected static final Pattern COMMA = Pattern.compile("\\s*,\\s*");
+
+    protected final Rule[] rules;
+
+    // exemption group name -> bit index
+    protected final Map<String, Integer> groupIndex;
+
+    // principal exemption groups -> NXQL filter, there are only as many entries as distinct group combinations
+    protected final Map<BitSet, Predicate> filters = new ConcurrentHashMap<>();
+
+    protected RuleSet(Rule[] rules, Map<String, Integer> groupIndex) {
+        this.rules = rules;
+        this.groupIndex = groupIndex;
+    }
+
+    public static RuleSet current() {
+        return PolicyConfig.current().getRules();
+    }
+
+    public static void install(RuleSet rules) {
+        PolicyConfig.update(config -> config.withRules(rules));
+    }
+
+    public static RuleSet compile(Map<String, String> expressions) {
+        return compile(expressions, null);
+    }
+
+    /**
+     * Compiles the rules given by name, in order, skipping the ones that can't be parsed or whose properties are not
+     * string properties of the schemas, not checked if {@code schemaManager} is {@code null}.
+     */
+    public static RuleSet compile(Map<String, String> expressions, SchemaManager schemaManager) {
+        Map<String, Integer> groupIndex = new LinkedHashMap<>();
+        List<Rule> rules = new ArrayList<>();
+        expressions.forEach((name, expression) -> {
+            try {
+                rules.add(parse(name, expression, groupIndex, schemaManager));
+            } catch (IllegalArgumentException e) {
+                // a bad contribution must not abort the reload and drop the configuration of the other ones
+                log.error(e.getMessage() + ", the rule is ignored");
+            }
+        });
+        return new RuleSet(rules.toArray(new Rule[0]), Collections.unmodifiableMap(groupIndex));
+    }
+
+    public static RuleSet compile(List<RuleDescriptor> descriptors, SchemaManager schemaManager) {
+        Map<String, String> expressions = new LinkedHashMap<>();
+        for (RuleDescriptor descriptor : descriptors) {
+            expressions.put(descriptor.getName(), descriptor.getExpression());
+        }
+        return compile(expressions, schemaManager);
+    }
+
+    /**
+     * Parses a rule, adding its exemption groups to the index once it is valid.
+     *
+     * @throws IllegalArgumentException if the rule can't be parsed
+     */
+    protected static Rule parse(String name, String expression, Map<String, Integer> groupIndex,
+            SchemaManager schemaManager) {
+        Matcher rule = RULE.matcher(expression == null ? "" : expression.trim());
+        if (!rule.matches()) {
+            throw new IllegalArgumentException("Invalid rule " + name + ": " + expression);
+        }
+        String[] conditions = AND.split(rule.group(1));
+        int n = conditions.length;
+        Rule compiled = new Rule(name, n);
+        Expression condition = null;
+        for (int i = 0; i < n; i++) {
+            Matcher m = CONDITION.matcher(conditions[i]);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Invalid condition in rule " + name + ": " + conditions[i]);
+            }
+            String attribute = m.group(1);
+            String value = m.group(3) != null ? m.group(3) : m.group(4);
+            boolean negated = m.group(2).equals("!=");
+            String field;
+            if (attribute.equals("type")) {
+                compiled.kinds[i] = Rule.TYPE;
+                field = "ecm:primaryType";
+            } else if (attribute.equals("state")) {
+                compiled.kinds[i] = Rule.STATE;
+                field = "ecm:currentLifeCycleState";
+            } else {
+                if (schemaManager != null && !isString(schemaManager.getField(attribute))) {
+                    throw new IllegalArgumentException(
+                            "Invalid condition in rule " + name + ": " + attribute + " is not a string property");
+                }
+                compiled.kinds[i] = Rule.PROPERTY;
+                field = attribute;
+            }
+            compiled.xpaths[i] = attribute;
+            compiled.values[i] = value;
+            compiled.negated[i] = negated;
+
+            Expression e = new Expression(new Reference(field), negated ? Operator.NOTEQ : Operator.EQ,
+                    new StringLiteral(value));
+            if (compiled.kinds[i] != Rule.TYPE) {
+                // so that NOT (...) keeps the documents missing the value, SQL would drop them as unknown
+                e = new Expression(e, Operator.AND, new Expression(new Reference(field), Operator.ISNOTNULL, null));
+            }
+            condition = condition == null ? e : new Expression(condition, Operator.AND, e);
+        }
+        compiled.filter = new Predicate(condition, Operator.NOT, null);
+        if (rule.group(2) != null) {
+            for (String group : COMMA.split(rule.group(2).trim())) {
+                compiled.exemptGroups.set(groupIndex.computeIfAbsent(group, g -> groupIndex.size()));
+            }
+        }
+        return compiled;
+    }
+
+    // the literal of the NXQL filter is a string, other types would be compared differently by the query
+    protected static boolean isString(Field field) {
+        Type type = field == null ? null : field.getType();
+        return type != null && type.isSimpleType() && ((SimpleType) type).getPrimitiveType() == StringType.INSTANCE;
+    }
+
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * Returns the bitset of the exemption groups the principal belongs to, {@link RightsTable#NO_GROUPS} if none.
+     */
+    public BitSet groupsOf(NuxeoPrincipal principal) {
+        BitSet bits = null;
+        for (Map.Entry<String, Integer> entry : groupIndex.entrySet()) {
+            if (principal.isMemberOf(entry.getKey())) {
+                if (bits == null) {
+                    bits = new BitSet(groupIndex.size());
+                }
+                bits.set(entry.getValue());
+            }
+        }
+        return bits == null ? RightsTable.NO_GROUPS : bits;
+    }
+
+    /**
+     * Returns the first rule denying the document to a principal with these exemption groups, {@code null} if none.
+     */
+    public Rule denying(Document doc, BitSet principalGroups) {
+        for (Rule rule : rules) {
+            if (rule.matches(doc) && !rule.exemptGroups.intersects(principalGroups)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the {@code NOT (...)} filters of the rules applying to a principal with these exemption groups, joined
+     * with AND, or {@code null} if none applies.
+     */
+    public Predicate filterFor(BitSet principalGroups) {
+        return filters.computeIfAbsent(principalGroups, this::buildFilter);
+    }
+
+    protected Predicate buildFilter(BitSet principalGroups) {
+        Predicate filter = null;
+        for (Rule rule : rules) {
+            if (!rule.exemptGroups.intersects(principalGroups)) {
+                filter = filter == null ? rule.filter : new Predicate(filter, Operator.AND, rule.filter);
+            }
+        }
+        return filter;
+    }
+
+    public List<Rule> getRules() {
+        return List.of(rules);
+    }
+
+    public Map<String, Integer> getGroupIndex() {
+        return groupIndex;
+    }
+
+    /**
+     * A compiled rule, its conditions are held in parallel arrays.
+     */
+    public static final class Rule {
+
+        protected static final int TYPE = 0;
+
+        protected static final int STATE = 1;
+
+        protected static final int PROPERTY = 2;
+
+        protected final String name;
+
+        protected final int[] kinds;
+
+        // the property xpath, only used for PROPERTY conditions
+        protected final String[] xpaths;
+
+        protected final String[] values;
+
+        protected final boolean[] negated;
+
+        protected final BitSet exemptGroups = new BitSet();
+
+        // NOT (condition1 AND condition2 ...)
+        protected Predicate filter;
+
+        protected Rule(String name, int size) {
+            this.name = name;
+            kinds = new int[size];
+            xpaths = new String[size];
+            values = new String[size];
+            negated = new boolean[size];
+        }
+
+        /**
+         * Whether all the conditions hold for the document.
+         */
+        public boolean matches(Document doc) {
+            for (int i = 0; i < kinds.length; i++) {
+                String actual;
+                switch (kinds[i]) {
+                case TYPE:
+                    actual = doc.getType().getName();
+                    break;
+                case STATE:
+                    actual = doc.getLifeCycleState();
+                    break;
+                default:
+                    // checked when compiled, a value of another type never holds
+                    Object value = doc.getPropertyValue(xpaths[i]);
+                    actual = value instanceof String ? (String) value : null;
+                }
+                if (actual == null || actual.equals(values[i]) == negated[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Predicate getFilter() {
+            return filter;
+        }
+
+    }
+
+}
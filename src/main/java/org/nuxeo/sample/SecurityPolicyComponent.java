@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.time.Clock;
+
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+/**
+ * Holds the configuration of the sample security policies and compiles it when the runtime starts.
+ * <p>
+ * The policies themselves are instantiated by the core {@code SecurityService}, they read the compiled configuration
+ * through {@link PolicyConfig#current()}, which falls back to the defaults when this component is not deployed, and
+ * the time through {@link #clock()}, ticking while this component is started.
+ */
+public class SecurityPolicyComponent extends DefaultComponent {
+
+    public static final String XP_RIGHTS_MAPPINGS = "rightsMappings";
+
+    public static final String XP_BYPASS = "bypass";
+
+    public static final String XP_RULES = "rules";
+
+    private static final CoarseClock CLOCK = new CoarseClock(Clock.systemUTC(), CoarseClock.DEFAULT_RESOLUTION_MILLIS);
+
+    /**
+     * Returns the clock of the policies, refreshed in the background while this component is started.
+     */
+    public static CoarseClock clock() {
+        return CLOCK;
+    }
+
+    @Override
+    public void start(ComponentContext context) {
+        CLOCK.start();
+        reload();
+    }
+
+    @Override
+    public void stop(ComponentContext context) {
+        PolicyConfig.install(PolicyConfig.DEFAULT);
+        VerdictCache.install(null);
+        DecisionTrace.stopSampling();
+        CLOCK.stop();
+    }
+
+    /**
+     * Compiles the contributions, runtime properties and registered document types into a new {@link PolicyConfig} and
+     * swaps it in, the policies pick it up on their next check or query. The {@link VerdictCache} and the
+     * {@link DecisionTrace} sampling are read again too. Called on start, and so on hot reload, and can be called after
+     * changing the properties.
+     */
+    public void reload() {
+        SchemaManager schemaManager = Framework.getService(SchemaManager.class);
+        PolicyConfig config = PolicyConfig.load(RightsTable.compile(getDescriptors(XP_RIGHTS_MAPPINGS)),
+                BypassPrincipals.compile(getDescriptors(XP_BYPASS)),
+                RuleSet.compile(getDescriptors(XP_RULES), schemaManager), TypeIndex.compile(schemaManager));
+        // types and lifecycles are all registered by now, the filters depend on the configured types and states and
+        // are swapped in with them
+        if (Framework.isBooleanPropertyTrue(PositiveStateFilters.ENABLED_PROPERTY)) {
+            config = config.withPositiveFilters(PositiveStateFilters.compute(config));
+        }
+        // sized from the properties read again, after the clock started
+        VerdictCache.install(VerdictCache.fromProperties());
+        PolicyConfig.install(config);
+        DecisionTrace.sampleFromProperties();
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+
+package org.nuxeo.sample;
+
+import java.util.function.Function;
+
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * LRU cache of transformed queries, keyed by the identity of the incoming query and the filter applied to it.
+ * <p>
+ * Callers re-running the same parsed {@link SQLQuery} get the previously transformed instance back instead of a new
+ * tree. The filters are shared per rights group combination, see {@link RightsTable#filterFor}, so the filter instance
+ * stands for the groups of the principal. The incoming query is held weakly and compared by identity, nothing is
+ * computed from its content: a lookup neither serializes nor hashes the query tree, and a query dropped by its caller
+ * leaves the cache.
+ */
+public class TransformedQueryCache {
+
+    protected final Cache<SQLQuery, Transformed> cache;
+
+    public TransformedQueryCache(long maxSize) {
+        cache = CacheBuilder.newBuilder().weakKeys().maximumSize(maxSize).build();
+    }
+
+    /**
+     * Returns the cached transformation of the query for this filter, computing it on a miss.
+     */
+    public SQLQuery get(Object filter, SQLQuery query, Function<SQLQuery, SQLQuery> transformation) {
+        Transformed cached = cache.getIfPresent(query);
+        if (cached != null && cached.filter == filter) {
+            return cached.query;
+        }
+        // one entry per query, the last filter applied to it wins
+        SQLQuery transformed = transformation.apply(query);
+        cache.put(query, new Transformed(filter, transformed));
+        return transformed;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    protected static final class Transformed {
+
+        protected final Object filter;
+
+        protected final SQLQuery query;
+
+        protected Transformed(Object filter, SQLQuery query) {
+            this.filter = filter;
+            this.query = query;
+        }
+    }
+
+}
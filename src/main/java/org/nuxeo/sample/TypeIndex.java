@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.nuxeo.ecm.core.query.sql.model.Expression;
+import org.nuxeo.ecm.core.query.sql.model.LiteralList;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
+import org.nuxeo.ecm.core.schema.DocumentType;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+
+/**
+ * The document type hierarchy, compiled from the types registered with the {@code TypeService} when the runtime
+ * starts.
+ * <p>
+ * Each type gets an integer id, and the bitset of the ids of the type itself and all its supertypes. Whether a document
+ * is a File, CustomFile included, is then a hash lookup of its type name and a bit test, instead of walking the
+ * {@code DocumentType} super types or comparing names, which misses the subtypes. The query filters list the subtypes
+ * with {@link #primaryTypeIn}.
+ */
+public final class TypeIndex {
+
+    public static final int UNKNOWN = -1;
+
+    // no type registered, used when the component is not deployed
+    public static final TypeIndex EMPTY = compile(Collections.emptyMap());
+
+    // type name -> id
+    private final Map<String, Integer> ids;
+
+    // id -> type name
+    private final String[] names;
+
+    // id -> ids of the type and its supertypes
+    private final BitSet[] supertypes;
+
+    private TypeIndex(Map<String, Integer> ids, String[] names, BitSet[] supertypes) {
+        this.ids = ids;
+        this.names = names;
+        this.supertypes = supertypes;
+    }
+
+    public static TypeIndex compile(SchemaManager schemaManager) {
+        // sorted for stable ids and subtype lists
+        Map<String, String> superTypes = new TreeMap<>();
+        for (DocumentType type : schemaManager.getDocumentTypes()) {
+            DocumentType superType = (DocumentType) type.getSuperType();
+            superTypes.put(type.getName(), superType == null ? null : superType.getName());
+        }
+        return compile(superTypes);
+    }
+
+    /**
+     * Compiles the hierarchy given as a type name to super type name map, {@code null} for the root types.
+     */
+    public static TypeIndex compile(Map<String, String> superTypes) {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        superTypes.forEach((type, superType) -> {
+            ids.computeIfAbsent(type, t -> ids.size());
+            if (superType != null) {
+                ids.computeIfAbsent(superType, t -> ids.size());
+            }
+        });
+        String[] names = new String[ids.size()];
+        BitSet[] supertypes = new BitSet[ids.size()];
+        ids.forEach((type, id) -> {
+            names[id.intValue()] = type;
+            BitSet bits = new BitSet(names.length);
+            // stops on a cycle rather than looping, the TypeService would have rejected it anyway
+            for (String t = type; t != null && !bits.get(ids.get(t).intValue()); t = superTypes.get(t)) {
+                bits.set(ids.get(t).intValue());
+            }
+            supertypes[id.intValue()] = bits;
+        });
+        return new TypeIndex(Collections.unmodifiableMap(ids), names, supertypes);
+    }
+
+    /**
+     * Returns the id of the type, {@link #UNKNOWN} if it is not registered.
+     */
+    public int idOf(String type) {
+        Integer id = ids.get(type);
+        return id == null ? UNKNOWN : id.intValue();
+    }
+
+    /**
+     * Whether the type is the one with the given id or one of its subtypes.
+     */
+    public boolean isA(String type, int superTypeId) {
+        Integer id = ids.get(type);
+        return id != null && isA(id.intValue(), superTypeId);
+    }
+
+    public boolean isA(int typeId, int superTypeId) {
+        return typeId >= 0 && superTypeId >= 0 && supertypes[typeId].get(superTypeId);
+    }
+
+    /**
+     * Returns the type and its subtypes, just the type if it is not registered.
+     */
+    public List<String> subtypesOf(String type) {
+        return subtypesOf(type, null);
+    }
+
+    /**
+     * Returns the type and its subtypes, leaving out the {@code except} type and its own subtypes, those having a rule
+     * of their own. Just the type if it is not registered.
+     */
+    public List<String> subtypesOf(String type, String except) {
+        int superTypeId = idOf(type);
+        if (superTypeId == UNKNOWN) {
+            return List.of(type);
+        }
+        int exceptId = except == null ? UNKNOWN : idOf(except);
+        List<String> subtypes = new ArrayList<>();
+        for (int id = 0; id < names.length; id++) {
+            if (supertypes[id].get(superTypeId) && !isA(id, exceptId)) {
+                subtypes.add(names[id]);
+            }
+        }
+        return subtypes;
+    }
+
+    /**
+     * Returns {@code ecm:primaryType IN (type, subtypes...)}, or {@code ecm:primaryType = type} when it has no subtype.
+     */
+    public Expression primaryTypeIn(String type) {
+        return primaryTypeIn(subtypesOf(type));
+    }
+
+    /**
+     * Returns {@code ecm:primaryType IN (types)}, or {@code ecm:primaryType = type} for a single type.
+     */
+    public static Expression primaryTypeIn(List<String> types) {
+        return primaryType(types, Operator.EQ, Operator.IN);
+    }
+
+    /**
+     * Returns {@code ecm:primaryType NOT IN (types)}, or {@code ecm:primaryType <> type} for a single type.
+     */
+    public static Expression primaryTypeNotIn(List<String> types) {
+        return primaryType(types, Operator.NOTEQ, Operator.NOTIN);
+    }
+
+    protected static Expression primaryType(List<String> types, Operator single, Operator list) {
+        if (types.size() == 1) {
+            return new Expression(new Reference("ecm:primaryType"), single, new StringLiteral(types.get(0)));
+        }
+        LiteralList literals = new LiteralList();
+        for (String type : types) {
+            literals.add(new StringLiteral(type));
+        }
+        return new Expression(new Reference("ecm:primaryType"), list, literals);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+}
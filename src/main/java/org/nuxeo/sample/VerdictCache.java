@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+package org.nuxeo.sample;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.RatioGauge;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+
+/**
+ * Optional cache of the verdicts of the sample policies, for the hot documents checked over and over by many users.
+ * <p>
+ * A verdict is keyed on the policy, the document id and change token, what the policy needs of the principal (nothing,
+ * the ITAR reader flag or the whole {@link Entitlements}) and the permission. Saving the document moves its change
+ * token, so its old verdicts are never looked up again and age out. Entries are bounded by {@value #MAX_SIZE_PROPERTY}
+ * (0, the default, disables the cache) and expire after {@value #TTL_PROPERTY} seconds. A verdict depending on time,
+ * the UNKNOWN of a document not expired yet, is not returned past the instant it was given with.
+ * <p>
+ * The policies use it as {@code key}, {@code lookup}, then {@code return store(key, access)}; every method accepts the
+ * {@code null} key returned when the cache is disabled. {@link SecurityPolicyComponent} creates it from the properties
+ * when it starts and on reload, and removes it when it stops.
+ */
+public class VerdictCache {
+
+    public static final String MAX_SIZE_PROPERTY = "org.nuxeo.sample.verdictCache.maxSize";
+
+    public static final String TTL_PROPERTY = "org.nuxeo.sample.verdictCache.ttlSeconds";
+
+    // no time limit other than the TTL
+    public static final long FOREVER = Long.MAX_VALUE;
+
+    // installed by SecurityPolicyComponent while it is started
+    private static volatile VerdictCache current;
+
+    protected final Cache<Key, Entry> cache;
+
+    protected final CoarseClock clock;
+
+    protected final Counter hits;
+
+    protected final Counter misses;
+
+    public VerdictCache(long maxSize, long ttlSeconds, CoarseClock clock) {
+        cache = CacheBuilder.newBuilder()
+                            .maximumSize(maxSize)
+                            .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                            .build();
+        this.clock = clock;
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        MetricName name = MetricName.build("nuxeo", "securitypolicy", "verdict", "cache");
+        hits = registry.counter(name.resolve("hit"));
+        misses = registry.counter(name.resolve("miss"));
+        registry.gauge(name.resolve("ratio"), () -> new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+    }
+
+    /**
+     * Returns a new cache sized from the properties, {@code null} if disabled.
+     */
+    public static VerdictCache fromProperties() {
+        long maxSize = Long.parseLong(Framework.getProperty(MAX_SIZE_PROPERTY, "0"));
+        if (maxSize <= 0) {
+            return null;
+        }
+        return new VerdictCache(maxSize, Long.parseLong(Framework.getProperty(TTL_PROPERTY, "60")),
+                SecurityPolicyComponent.clock());
+    }
+
+    /**
+     * Returns the installed cache, {@code null} if disabled.
+     */
+    public static VerdictCache current() {
+        return current;
+    }
+
+    /**
+     * Installs the cache used by the policies, {@code null} to disable it.
+     */
+    public static void install(VerdictCache cache) {
+        current = cache;
+    }
+
+    /**
+     * Returns the key of the verdict, {@code null} if the cache is disabled or the document has no change token.
+     */
+    public static Key key(String policy, Document doc, Object principalKey, String permission) {
+        if (current == null) {
+            return null;
+        }
+        String changeToken = doc.getChangeToken();
+        if (changeToken == null) {
+            return null;
+        }
+        return new Key(policy, doc.getUUID(), changeToken, principalKey, permission);
+    }
+
+    /**
+     * Returns the cached verdict, {@code null} on a miss.
+     */
+    public static Access lookup(Key key) {
+        VerdictCache c = current;
+        return key == null || c == null ? null : c.get(key, c.clock.millis());
+    }
+
+    /**
+     * Returns the cached verdict if still valid at {@code now}, for the policies reading time from their own clock.
+     */
+    public static Access lookup(Key key, long now) {
+        VerdictCache c = current;
+        return key == null || c == null ? null : c.get(key, now);
+    }
+
+    /**
+     * Caches the verdict and returns it.
+     */
+    public static Access store(Key key, Access access) {
+        return store(key, access, FOREVER);
+    }
+
+    /**
+     * Caches the verdict until {@code notAfter} at most, in epoch millis, and returns it.
+     */
+    public static Access store(Key key, Access access, long notAfter) {
+        VerdictCache c = current;
+        if (key != null && c != null) {
+            c.cache.put(key, new Entry(access, notAfter));
+        }
+        return access;
+    }
+
+    protected Access get(Key key, long now) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null || entry.notAfter <= now) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return entry.access;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public static final class Key {
+
+        private final String policy;
+
+        private final String docId;
+
+        private final String changeToken;
+
+        private final Object principalKey;
+
+        private final String permission;
+
+        private final int hash;
+
+        private Key(String policy, String docId, String changeToken, Object principalKey, String permission) {
+            this.policy = policy;
+            this.docId = docId;
+            this.changeToken = changeToken;
+            this.principalKey = principalKey;
+            this.permission = permission;
+            hash = Objects.hash(policy, docId, changeToken, principalKey, permission);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && docId.equals(other.docId) && changeToken.equals(other.changeToken)
+                    && policy.equals(other.policy) && Objects.equals(permission, other.permission)
+                    && Objects.equals(principalKey, other.principalKey);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Access access;
+
+        private final long notAfter;
+
+        private Entry(Access access, long notAfter) {
+            this.access = access;
+            this.notAfter = notAfter;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2006-2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Harlan Brown
+ */
+
+package org.nuxeo.sample;
+
+import java.util.BitSet;
+
+import org.nuxeo.ecm.core.api.security.Access;
+
+/**
+ * The verdicts of a batch permission check, by document index: GRANT, DENY or UNKNOWN (undecided).
+ * <p>
+ * Kept as bitsets, 10k documents fit in a few kilobytes. Policies are evaluated in order and the first one deciding a
+ * document wins, like {@code SecurityPolicyService} does one document at a time: a policy only looks at the documents
+ * still undecided, see {@link #nextUndecided}.
+ */
+public final class Verdicts {
+
+    private final int size;
+
+    private final BitSet granted;
+
+    private final BitSet denied;
+
+    // granted | denied
+    private final BitSet decided;
+
+    public Verdicts(int size) {
+        this.size = size;
+        granted = new BitSet(size);
+        denied = new BitSet(size);
+        decided = new BitSet(size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Access get(int index) {
+        if (granted.get(index)) {
+            return Access.GRANT;
+        }
+        return denied.get(index) ? Access.DENY : Access.UNKNOWN;
+    }
+
+    /**
+     * Records the decision of a policy on an undecided document, UNKNOWN leaves it to the next policies.
+     */
+    public void set(int index, Access access) {
+        if (access == Access.GRANT) {
+            grant(index);
+        } else if (access == Access.DENY) {
+            deny(index);
+        }
+    }
+
+    public void grant(int index) {
+        granted.set(index);
+        decided.set(index);
+    }
+
+    public void deny(int index) {
+        denied.set(index);
+        decided.set(index);
+    }
+
+    /**
+     * Copies the decisions of {@code part}, the verdicts of the documents starting at {@code offset}.
+     */
+    public void putAll(Verdicts part, int offset) {
+        for (int i = part.granted.nextSetBit(0); i >= 0; i = part.granted.nextSetBit(i + 1)) {
+            grant(offset + i);
+        }
+        for (int i = part.denied.nextSetBit(0); i >= 0; i = part.denied.nextSetBit(i + 1)) {
+            deny(offset + i);
+        }
+    }
+
+    public boolean isDecided(int index) {
+        return decided.get(index);
+    }
+
+    /**
+     * Returns the first undecided index from {@code fromIndex} included, -1 if there is none.
+     */
+    public int nextUndecided(int fromIndex) {
+        int index = decided.nextClearBit(fromIndex);
+        return index < size ? index : -1;
+    }
+
+    public boolean isComplete() {
+        return decided.cardinality() == size;
+    }
+
+    /**
+     * Returns a copy of the indexes of the granted documents.
+     */
+    public BitSet granted() {
+        return (BitSet) granted.clone();
+    }
+
+    /**
+     * Returns a copy of the indexes of the denied documents.
+     */
+    public BitSet denied() {
+        return (BitSet) denied.clone();
+    }
+
+}
@@ -0,0 +1,186 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.AbstractSession;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.model.Session;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.ecm.core.security.SecurityPolicyService;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.BatchPermissionEvaluator;
+import org.nuxeo.sample.CompositeSecurityPolicy;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.DocumentFacts;
+import org.nuxeo.sample.Entitlements;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.ParallelBatchPermissionEvaluator;
+import org.nuxeo.sample.PolicyConfig;
+import org.nuxeo.sample.Verdicts;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/lifecycle-contrib.xml"
+})
+public class TestBatchPermissions {
+
+    static final String members = "members";
+	static final NuxeoPrincipal membersPrincipal = new UserPrincipal(members, new ArrayList<>(), false, false);
+
+    protected List<String> ids = new ArrayList<>();
+
+    @Inject
+    protected SecurityPolicyService service;
+
+    @Inject
+    protected CoreSession coreSession;
+
+    @Before
+    public void setUp() {
+
+    	ids.add(coreSession.createDocument(coreSession.createDocumentModel("/", "approved", "File")).getId());
+        coreSession.followTransition(new PathRef("/approved"), "approve");
+
+    	ids.add(coreSession.createDocument(coreSession.createDocumentModel("/", "project", "File")).getId());
+
+    	ids.add(coreSession.createDocument(coreSession.createDocumentModel("/", "archived", "CustomFile")).getId());
+        coreSession.followTransition(new PathRef("/archived"), "to_archived");
+
+    	ids.add(coreSession.createDocument(coreSession.createDocumentModel("/", "draft", "CustomFile")).getId());
+
+        Calendar cal = Calendar.getInstance();
+        cal.set(2010, Calendar.JANUARY, 1, 0, 0, 0);
+    	DocumentModel expired = coreSession.createDocumentModel("/", "expired", "File");
+    	expired.setPropertyValue("dc:expired", cal);
+    	ids.add(coreSession.createDocument(expired).getId());
+        coreSession.followTransition(new PathRef("/expired"), "approve");
+
+    	ids.add(coreSession.createDocument(coreSession.createDocumentModel("/", "workspace1", "Workspace")).getId());
+
+    	coreSession.save();
+    }
+
+    @Test
+    public void testSameVerdicts() throws Exception {
+
+    	Session session = ((AbstractSession) coreSession).getSession();
+    	DocumentFacts facts = DocumentFacts.load(session, ids);
+
+    	// same policies and order as the test contribution
+    	BatchPermissionEvaluator evaluator = new BatchPermissionEvaluator(List.of(new DcExpiredSecurityPolicy(),
+    			new LifeCycleSecurityPolicy(), new ArchivedSecurityPolicy()));
+    	Verdicts verdicts = evaluator.evaluate(facts, membersPrincipal, READ);
+
+    	assertEquals(ids.size(), verdicts.size());
+    	String[] permissions = { READ };
+    	for (int i = 0; i < ids.size(); i++) {
+    		assertSame(ids.get(i), service.checkPermission(facts.get(i), null, membersPrincipal, READ, permissions, null),
+    				verdicts.get(i));
+    	}
+    	// project, draft and expired
+    	assertEquals(3, verdicts.denied().cardinality());
+    	assertEquals(0, verdicts.granted().cardinality());
+
+    	// the composite decides the same in one pass
+    	Verdicts composite = new BatchPermissionEvaluator(List.of(new CompositeSecurityPolicy())).evaluate(
+    			DocumentFacts.load(session, ids), membersPrincipal, READ);
+    	assertEquals(verdicts.denied(), composite.denied());
+    }
+
+    @Test
+    public void testPrefetchedProperties() throws Exception {
+
+    	Session session = ((AbstractSession) coreSession).getSession();
+    	// the properties read together, one readPrefetch per document
+    	DocumentFacts prefetched = DocumentFacts.load(session, ids).prefetch(
+    			EnumSet.of(DocumentFacts.Column.EXPIRED, DocumentFacts.Column.RIGHTS));
+    	// each column read on its own
+    	DocumentFacts lazy = DocumentFacts.load(session, ids);
+    	assertArrayEquals(lazy.expired(), prefetched.expired());
+    	assertArrayEquals(lazy.rights(), prefetched.rights());
+    	assertEquals(1, Arrays.stream(prefetched.expired()).filter(e -> e != DocumentFacts.NEVER).count());
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+
+    	Session session = ((AbstractSession) coreSession).getSession();
+    	List<SecurityPolicy> all = List.of(new DcExpiredSecurityPolicy(),
+    			new LifeCycleSecurityPolicy(), new ArchivedSecurityPolicy());
+
+    	Verdicts sequential = new BatchPermissionEvaluator(all).evaluate(DocumentFacts.load(session, ids),
+    			membersPrincipal, READ);
+
+    	ForkJoinPool pool = new ForkJoinPool(2);
+    	try {
+    		// chunks of 2 documents, 3 chunks
+    		Verdicts parallel = new ParallelBatchPermissionEvaluator(all, pool, 2).evaluate(
+    				DocumentFacts.load(session, ids), membersPrincipal, READ);
+    		for (int i = 0; i < ids.size(); i++) {
+    			assertSame(ids.get(i), sequential.get(i), parallel.get(i));
+    		}
+    	} finally {
+    		pool.shutdown();
+    	}
+    }
+
+    @Test
+    public void testParallelColdEntitlements() throws Exception {
+
+    	Session session = ((AbstractSession) coreSession).getSession();
+    	Set<Entitlements> received = ConcurrentHashMap.newKeySet();
+    	LifeCycleSecurityPolicy recording = new LifeCycleSecurityPolicy() {
+    		@Override
+    		public void checkPermissions(DocumentFacts docs, NuxeoPrincipal principal, Entitlements entitlements,
+    				PolicyConfig config, String permission, Verdicts verdicts) {
+    			received.add(entitlements);
+    			super.checkPermissions(docs, principal, entitlements, config, permission, verdicts);
+    		}
+    	};
+
+    	Entitlements.CACHE.invalidateAll();
+    	ForkJoinPool pool = new ForkJoinPool(2);
+    	try {
+    		new ParallelBatchPermissionEvaluator(List.of(recording), pool, 2).evaluate(DocumentFacts.load(session, ids),
+    				membersPrincipal, READ);
+    	} finally {
+    		pool.shutdown();
+    	}
+    	// the chunks got the entitlements resolved once before they were submitted, and cached by then
+    	assertEquals(1, received.size());
+    	assertSame(Entitlements.of(membersPrincipal), received.iterator().next());
+    }
+}
@@ -0,0 +1,134 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.security.Access.DENY;
+import static org.nuxeo.ecm.core.api.security.Access.UNKNOWN;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.AbstractSession;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.model.Session;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.ecm.core.security.SecurityPolicyService;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.CompositeSecurityPolicy;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/composite-security-policy-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/lifecycle-contrib.xml"
+})
+public class TestCompositeSecurityPolicy {
+
+    static final String members = "members";
+	static final NuxeoPrincipal membersPrincipal = new UserPrincipal(members, new ArrayList<>(), false, false);
+
+    protected DocumentModel approved;
+    protected DocumentModel project;
+    protected DocumentModel archived;
+    protected DocumentModel draft;
+    protected DocumentModel expired;
+
+    @Inject
+    protected SecurityPolicyService service;
+
+    @Inject
+    protected CoreSession coreSession;
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Before
+    public void setUp() {
+
+    	approved = coreSession.createDocument(coreSession.createDocumentModel("/", "approved", "File"));
+        coreSession.followTransition(new PathRef("/approved"), "approve");
+
+    	project = coreSession.createDocument(coreSession.createDocumentModel("/", "project", "File"));
+
+    	archived = coreSession.createDocument(coreSession.createDocumentModel("/", "archived", "CustomFile"));
+        coreSession.followTransition(new PathRef("/archived"), "to_archived");
+
+    	draft = coreSession.createDocument(coreSession.createDocumentModel("/", "draft", "CustomFile"));
+
+        Calendar cal = Calendar.getInstance();
+        cal.set(2010, Calendar.JANUARY, 1, 0, 0, 0);
+    	expired = coreSession.createDocumentModel("/", "expired", "File");
+    	expired.setPropertyValue("dc:expired", cal);
+    	expired = coreSession.createDocument(expired);
+        coreSession.followTransition(new PathRef("/expired"), "approve");
+
+    	coreSession.save();
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSession("Administrator")) {
+        	assertEquals(5, coreSession.query("SELECT * FROM File").size());
+        }
+
+        // the approved File and the archived CustomFile
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSession("members")) {
+        	assertEquals(2, coreSession.query("SELECT * FROM File").size());
+        }
+    }
+
+    @Test
+    public void testCheckPermission() throws Exception {
+
+    	String permission = READ;
+        String[] permissions = { READ };
+
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSession("members")) {
+        	Session documentSession = ((AbstractSession) coreSession).getSession();
+
+        	assertSame(UNKNOWN, service.checkPermission(documentSession.getDocumentByUUID(approved.getId()), null, membersPrincipal, permission, permissions, null));
+        	assertSame(DENY, service.checkPermission(documentSession.getDocumentByUUID(project.getId()), null, membersPrincipal, permission, permissions, null));
+        	assertSame(UNKNOWN, service.checkPermission(documentSession.getDocumentByUUID(archived.getId()), null, membersPrincipal, permission, permissions, null));
+        	assertSame(DENY, service.checkPermission(documentSession.getDocumentByUUID(draft.getId()), null, membersPrincipal, permission, permissions, null));
+        	assertSame(DENY, service.checkPermission(documentSession.getDocumentByUUID(expired.getId()), null, membersPrincipal, permission, permissions, null));
+        }
+    }
+
+    @Test
+    public void testTransformer() throws Exception {
+
+    	Transformer t = new CompositeSecurityPolicy().getQueryTransformer(null);
+        SQLQuery p = SQLQueryParser.parse("SELECT * FROM Document WHERE ecm:isVersion = 0");
+    	String s = t.transform(membersPrincipal, p).toString();
+
+    	// a single NOT wrapping all the rules
+    	assertEquals(s.indexOf("NOT "), s.lastIndexOf("NOT "));
+    	assertTrue(s.contains("ecm:currentLifeCycleState <> 'approved'"));
+    	assertTrue(s.contains("ecm:currentLifeCycleState <> 'archived'"));
+    	assertTrue(s.contains("dc:expired < TIMESTAMP"));
+    }
+}
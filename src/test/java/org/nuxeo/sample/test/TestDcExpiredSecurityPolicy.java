@@ -1,6 +1,7 @@
 package org.nuxeo.sample.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.nuxeo.ecm.core.api.security.Access.DENY;
@@ -8,8 +9,14 @@ import static org.nuxeo.ecm.core.api.security.Access.UNKNOWN;
 import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
 
 import java.security.Principal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.inject.Inject;
 
 import org.junit.Before;
@@ -123,4 +130,41 @@ public class TestDcExpiredSecurityPolicy {
     	assertTrue(s.toString().contains("AND dc:expired IS NOT NULL"));
     	
     }
+    
+    @Test
+    public void testTransformerClock() throws Exception {
+
+        // one minute buckets on a clock we move by hand
+        AtomicLong millis = new AtomicLong(Instant.parse("2020-01-01T00:00:30Z").toEpochMilli());
+        Clock clock = new Clock() {
+
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(millis.get());
+            }
+        };
+        Transformer t = new DcExpiredTransformer(clock, Duration.ofMinutes(1));
+        SQLQuery p = SQLQueryParser.parse("SELECT * FROM File");
+        String first = t.transform(membersPrincipal, p).toString();
+
+        // same bucket, same filter
+        millis.addAndGet(20_000);
+        assertEquals(first, t.transform(membersPrincipal, p).toString());
+
+        // next bucket, the filter follows the clock
+        millis.addAndGet(20_000);
+        String next = t.transform(membersPrincipal, p).toString();
+        assertNotEquals(first, next);
+        assertTrue(next.contains("WHERE NOT ((dc:expired < TIMESTAMP"));
+    }
 }
@@ -0,0 +1,109 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.message.StringMapMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.AbstractSession;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.runtime.test.runner.LogCaptureFeature;
+import org.nuxeo.sample.DecisionTrace;
+import org.nuxeo.sample.SecurityPolicyComponent;
+
+@RunWith(FeaturesRunner.class)
+@Features({ CoreFeature.class, LogCaptureFeature.class })
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-service.xml"
+})
+@LogCaptureFeature.FilterOn(logLevel = "INFO", loggerClass = DecisionTrace.class)
+public class TestDecisionTrace {
+
+	static final NuxeoPrincipal user1 = new UserPrincipal("user1", new ArrayList<>(), false, false);
+	static final NuxeoPrincipal user2 = new UserPrincipal("user2", new ArrayList<>(), false, false);
+
+    protected Document doc;
+
+    @Inject
+    protected CoreSession coreSession;
+
+    @Inject
+    protected LogCaptureFeature.Result logResult;
+
+    @Before
+    public void setUp() {
+    	DocumentModel file = coreSession.createDocumentModel("/", "file", "File");
+    	file = coreSession.createDocument(file);
+    	coreSession.save();
+    	doc = ((AbstractSession) coreSession).getSession().getDocumentByUUID(file.getId());
+    }
+
+    @After
+    public void tearDown() {
+        Framework.getProperties().remove(DecisionTrace.SAMPLE_USER_PROPERTY);
+        Framework.getProperties().remove(DecisionTrace.SAMPLE_RATIO_PROPERTY);
+        component().reload();
+    }
+
+    @Test
+    public void testSampledUser() throws Exception {
+    	// not sampled, and the logger is not at TRACE
+    	DecisionTrace.trace("test", user1, doc, Access.GRANT);
+    	assertTrue(logResult.getCaughtEvents().isEmpty());
+
+    	Framework.getProperties().setProperty(DecisionTrace.SAMPLE_USER_PROPERTY, "user1");
+    	component().reload();
+    	assertEquals(Access.GRANT, DecisionTrace.trace("test", user1, doc, Access.GRANT));
+    	assertEquals(Access.DENY, DecisionTrace.trace("test", user2, doc, Access.DENY));
+
+    	List<LogEvent> events = logResult.getCaughtEvents();
+    	assertEquals(1, events.size());
+    	StringMapMessage message = (StringMapMessage) events.get(0).getMessage();
+    	assertEquals("user1", message.get("principal"));
+    	assertEquals(doc.getUUID(), message.get("document"));
+    	assertEquals("GRANT", message.get("access"));
+
+    	// the property removed, sampling stops on reload
+    	logResult.clear();
+    	Framework.getProperties().remove(DecisionTrace.SAMPLE_USER_PROPERTY);
+    	component().reload();
+    	DecisionTrace.trace("test", user1, doc, Access.GRANT);
+    	assertTrue(logResult.getCaughtEvents().isEmpty());
+    }
+
+    @Test
+    public void testSampleRatio() throws Exception {
+    	Framework.getProperties().setProperty(DecisionTrace.SAMPLE_USER_PROPERTY, "user1");
+    	Framework.getProperties().setProperty(DecisionTrace.SAMPLE_RATIO_PROPERTY, "0");
+    	component().reload();
+    	for (int i = 0; i < 100; i++) {
+    		DecisionTrace.trace("test", user1, doc, Access.GRANT);
+    	}
+    	assertTrue(logResult.getCaughtEvents().isEmpty());
+    }
+
+    protected static SecurityPolicyComponent component() {
+        return (SecurityPolicyComponent) Framework.getRuntime()
+                                                  .getComponent("org.nuxeo.sample.securitypolicy.SecurityPolicyComponent");
+    }
+
+}
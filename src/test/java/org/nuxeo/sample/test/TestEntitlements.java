@@ -0,0 +1,100 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.ecm.platform.usermanager.UserManagerImpl;
+import org.nuxeo.runtime.services.event.Event;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.Entitlements;
+import org.nuxeo.sample.EntitlementsInvalidator;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.RightsTable;
+
+@RunWith(FeaturesRunner.class)
+@Features(PlatformFeature.class)
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-service.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/bypass-test-contrib.xml"
+})
+public class TestEntitlements {
+
+    @Inject
+    protected UserManager userManager;
+
+    @Test
+    public void testSnapshot() throws Exception {
+    	NuxeoPrincipal user1 = userManager.getPrincipal("user1");
+    	Entitlements e = Entitlements.of(user1);
+    	assertFalse(e.isUnrestricted());
+    	assertFalse(e.isItarReader());
+    	assertTrue(e.getRightsGroups().get(groupBit("GROUP1")));
+    	assertFalse(e.getRightsGroups().get(groupBit("GROUP2")));
+
+    	// computed once, then shared by every check and query of the user
+    	assertSame(e, Entitlements.of(user1));
+    	assertSame(e, Entitlements.of(userManager.getPrincipal("user1")));
+
+    	assertTrue(Entitlements.of(userManager.getPrincipal("Administrator")).isUnrestricted());
+    }
+
+    @Test
+    public void testBypassGroup() throws Exception {
+    	// GROUP3 is contributed as a bypass group
+    	NuxeoPrincipal user3 = userManager.getPrincipal("user3");
+    	assertTrue(Entitlements.of(user3).isUnrestricted());
+
+    	SQLQuery query = SQLQueryParser.parse("SELECT * FROM File");
+    	assertSame(query, LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER.transform(user3, query));
+    	assertNotSame(query, LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER.transform(userManager.getPrincipal("user1"), query));
+    }
+
+    @Test
+    public void testResolvedGroups() throws Exception {
+    	Entitlements.CACHE.invalidate("user1");
+    	// a principal passed without its groups, as some transformers get it
+    	NuxeoPrincipal bare = new UserPrincipal("user1", new ArrayList<>(), false, false);
+    	Entitlements e = Entitlements.of(bare);
+    	assertTrue(e.getRightsGroups().get(groupBit("GROUP1")));
+    	assertSame(e, Entitlements.of(userManager.getPrincipal("user1")));
+    }
+
+    @Test
+    public void testInvalidatedOnUserChange() throws Exception {
+    	Entitlements before = Entitlements.of(userManager.getPrincipal("user4"));
+    	assertTrue(before.getRightsGroups().isEmpty());
+
+    	DocumentModel user = userManager.getUserModel("user4");
+    	user.setProperty(userManager.getUserSchemaName(), "groups", Arrays.asList("GROUP2"));
+    	userManager.updateUser(user);
+    	new EntitlementsInvalidator().handleEvent(
+    	        new Event(UserManagerImpl.USERMANAGER_TOPIC, UserManagerImpl.USERCHANGED_EVENT_ID, null, "user4"));
+
+    	Entitlements after = Entitlements.of(userManager.getPrincipal("user4"));
+    	assertNotSame(before, after);
+    	assertTrue(after.getRightsGroups().get(groupBit("GROUP2")));
+    }
+
+    protected int groupBit(String group) {
+        return RightsTable.current().getGroupIndex().get(group).intValue();
+    }
+
+}
@@ -0,0 +1,159 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.security.Access.DENY;
+import static org.nuxeo.ecm.core.api.security.Access.UNKNOWN;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.AbstractSession;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.event.EventServiceAdmin;
+import org.nuxeo.ecm.core.model.Session;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+import org.nuxeo.sample.ItarRestriction;
+import org.nuxeo.sample.ItarRestrictionBackfillWork;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+
+@RunWith(FeaturesRunner.class)
+@Features(PlatformFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/itar-restriction-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/itar-schema-test-contrib.xml"
+})
+public class TestItarRestriction {
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
+    @Inject
+    protected EventServiceAdmin eventServiceAdmin;
+
+    @Inject
+    protected UserManager userManager;
+
+    @Test
+    public void testListener() throws Exception {
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+	    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", "itar", "File");
+	    	doc.setPropertyValue(NoItarSecurityPolicy.ITAR_FIELD, "Yes");
+	    	doc = coreSession.createDocument(doc);
+	    	assertTrue(doc.hasFacet(ItarRestriction.FACET));
+
+	    	doc.setPropertyValue(NoItarSecurityPolicy.ITAR_FIELD, "No");
+	    	doc = coreSession.saveDocument(doc);
+	    	assertFalse(doc.hasFacet(ItarRestriction.FACET));
+
+	    	// only Files are restricted
+	    	DocumentModel note = coreSession.createDocumentModel("/default-domain/workspaces", "note", "Note");
+	    	note = coreSession.createDocument(note);
+	    	assertFalse(note.hasFacet(ItarRestriction.FACET));
+    	}
+    }
+
+    @Test
+    public void testBackfill() throws Exception {
+    	List<String> ids = new ArrayList<>();
+    	// documents created before the listener was deployed
+    	eventServiceAdmin.setListenerEnabledFlag("itarRestriction", false);
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+    		for (int i = 0; i < 5; i++) {
+		    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", "doc" + i, "File");
+		    	doc.setPropertyValue(NoItarSecurityPolicy.ITAR_FIELD, i % 2 == 0 ? "Yes" : "No");
+		    	ids.add(coreSession.createDocument(doc).getId());
+    		}
+	    	coreSession.save();
+    	} finally {
+    		eventServiceAdmin.setListenerEnabledFlag("itarRestriction", true);
+    	}
+    	txFeature.nextTransaction();
+
+    	// several batches, without pausing the test
+    	Framework.getProperties().setProperty(ItarRestrictionBackfillWork.BATCH_SIZE_PROPERTY, "2");
+    	Framework.getProperties().setProperty(ItarRestrictionBackfillWork.PAUSE_PROPERTY, "0");
+    	try {
+    		ItarRestrictionBackfillWork.schedule(coreFeature.getRepositoryName());
+    		txFeature.nextTransaction();
+    	} finally {
+    		Framework.getProperties().remove(ItarRestrictionBackfillWork.BATCH_SIZE_PROPERTY);
+    		Framework.getProperties().remove(ItarRestrictionBackfillWork.PAUSE_PROPERTY);
+    	}
+
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+    		for (int i = 0; i < ids.size(); i++) {
+    			assertEquals(i % 2 == 0, coreSession.getDocument(new IdRef(ids.get(i))).hasFacet(ItarRestriction.FACET));
+    		}
+    		assertEquals(3, coreSession.query("SELECT * FROM File WHERE ecm:mixinType = 'RestrictedItar'").size());
+    	}
+    	// a completed backfill starts over next time
+    	assertNull(Framework.getService(KeyValueService.class)
+    	                    .getKeyValueStore("default")
+    	                    .getString("org.nuxeo.sample.itar.backfill.cursor." + coreFeature.getRepositoryName()));
+    }
+
+    @Test
+    public void testCheckPermission() throws Exception {
+    	String id, id2;
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+	    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", "itar", "File");
+	    	doc.setPropertyValue(NoItarSecurityPolicy.ITAR_FIELD, "Yes");
+	    	id = coreSession.createDocument(doc).getId();
+	    	DocumentModel doc2 = coreSession.createDocumentModel("/default-domain/workspaces", "notitar", "File");
+	    	doc2.setPropertyValue(NoItarSecurityPolicy.ITAR_FIELD, "No");
+	    	id2 = coreSession.createDocument(doc2).getId();
+	    	coreSession.save();
+    	}
+
+    	SecurityPolicy policy = new NoItarSecurityPolicy(true);
+    	String[] permissions = { READ };
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+    		Session documentSession = ((AbstractSession) coreSession).getSession();
+    		assertSame(DENY, policy.checkPermission(documentSession.getDocumentByUUID(id), null,
+    		        userManager.getPrincipal("user1"), READ, permissions, null));
+    		assertSame(UNKNOWN, policy.checkPermission(documentSession.getDocumentByUUID(id2), null,
+    		        userManager.getPrincipal("user1"), READ, permissions, null));
+    	}
+    }
+
+    @Test
+    public void testTransformer() throws Exception {
+    	SQLQuery p = SQLQueryParser.parse("SELECT * FROM File");
+    	String s = NoItarSecurityPolicy.NO_ITAR_FACET_TRANSFORMER.transform(userManager.getPrincipal("user1"), p).toString();
+    	assertTrue(s.contains("ecm:mixinType <> 'RestrictedItar'"));
+    	assertFalse(s.contains(NoItarSecurityPolicy.ITAR_FIELD));
+    }
+
+}
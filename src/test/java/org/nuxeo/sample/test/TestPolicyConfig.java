@@ -0,0 +1,145 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.Entitlements;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+import org.nuxeo.sample.PolicyConfig;
+import org.nuxeo.sample.PositiveStateFilters;
+import org.nuxeo.sample.RightsTable;
+import org.nuxeo.sample.SecurityPolicyComponent;
+import org.nuxeo.sample.VerdictCache;
+
+@RunWith(FeaturesRunner.class)
+@Features(PlatformFeature.class)
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-service.xml"
+})
+public class TestPolicyConfig {
+
+    @Inject
+    protected UserManager userManager;
+
+    @After
+    public void tearDown() {
+        Framework.getProperties().remove(PolicyConfig.ITAR_READERS_GROUP_PROPERTY);
+        Framework.getProperties().remove(PolicyConfig.ARCHIVED_STATE_PROPERTY);
+        Framework.getProperties().remove(PositiveStateFilters.ENABLED_PROPERTY);
+        Framework.getProperties().remove(VerdictCache.MAX_SIZE_PROPERTY);
+        component().reload();
+    }
+
+    @Test
+    public void testReload() throws Exception {
+    	PolicyConfig before = PolicyConfig.current();
+    	assertEquals("archived", before.getArchivedState());
+    	assertTrue(ArchivedSecurityPolicy.isDenied("CustomFile", "draft"));
+
+    	NuxeoPrincipal user1 = userManager.getPrincipal("user1");
+    	Entitlements entitlements = Entitlements.of(user1);
+    	assertFalse(entitlements.isItarReader());
+
+    	Framework.getProperties().setProperty(PolicyConfig.ITAR_READERS_GROUP_PROPERTY, "GROUP1");
+    	Framework.getProperties().setProperty(PolicyConfig.ARCHIVED_STATE_PROPERTY, "draft");
+    	component().reload();
+
+    	PolicyConfig after = PolicyConfig.current();
+    	assertNotSame(before, after);
+    	assertFalse(ArchivedSecurityPolicy.isDenied("CustomFile", "draft"));
+    	assertTrue(ArchivedSecurityPolicy.isDenied("CustomFile", "archived"));
+
+    	// computed again on the new configuration
+    	assertTrue(Entitlements.of(user1).isItarReader());
+    	assertEquals(entitlements.getRightsGroups(), Entitlements.of(user1).getRightsGroups());
+
+    	SQLQuery query = SQLQueryParser.parse("SELECT * FROM Document");
+    	String s = ArchivedSecurityPolicy.ARCHIVED_TRANSFORMER.transform(user1, query).toString();
+    	assertTrue(s.contains("ecm:currentLifeCycleState <> 'draft'"));
+    }
+
+    @Test
+    public void testPositiveFiltersReload() throws Exception {
+    	assertNull(PolicyConfig.current().getPositiveFilter(PolicyConfig.FILE_TYPE));
+
+    	Framework.getProperties().setProperty(PositiveStateFilters.ENABLED_PROPERTY, "true");
+    	component().reload();
+    	Predicate filter = PolicyConfig.current().getPositiveFilter(PolicyConfig.FILE_TYPE);
+    	assertNotNull(filter);
+    	SQLQuery query = SQLQueryParser.parse("SELECT * FROM Document");
+    	NuxeoPrincipal user1 = userManager.getPrincipal("user1");
+    	assertTrue(LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER.transform(user1, query)
+    	                                                        .toString()
+    	                                                        .contains(filter.toString()));
+
+    	// switched off again, the NOT form is back
+    	Framework.getProperties().remove(PositiveStateFilters.ENABLED_PROPERTY);
+    	component().reload();
+    	assertNull(PolicyConfig.current().getPositiveFilter(PolicyConfig.FILE_TYPE));
+    	assertTrue(LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER.transform(user1, query).toString().contains("NOT"));
+    }
+
+    @Test
+    public void testVerdictCacheReload() throws Exception {
+    	assertNull(VerdictCache.current());
+
+    	Framework.getProperties().setProperty(VerdictCache.MAX_SIZE_PROPERTY, "100");
+    	component().reload();
+    	VerdictCache cache = VerdictCache.current();
+    	assertNotNull(cache);
+
+    	// a new one on every reload, none once disabled
+    	component().reload();
+    	assertNotNull(VerdictCache.current());
+    	assertNotSame(cache, VerdictCache.current());
+    	Framework.getProperties().remove(VerdictCache.MAX_SIZE_PROPERTY);
+    	component().reload();
+    	assertNull(VerdictCache.current());
+    }
+
+    @Test
+    public void testPartialInstall() throws Exception {
+    	PolicyConfig before = PolicyConfig.current();
+    	RightsTable table = RightsTable.compile(Map.of("GROUP2", List.of("GROUP1")));
+    	RightsTable.install(table);
+
+    	// the other parts of the snapshot are kept
+    	PolicyConfig after = PolicyConfig.current();
+    	assertSame(table, after.getRights());
+    	assertSame(before.getBypass(), after.getBypass());
+    	assertSame(before.getRules(), after.getRules());
+    	assertEquals(before.getItarField(), after.getItarField());
+    	assertEquals(NoItarSecurityPolicy.ITAR_FIELD, after.getItarField());
+    }
+
+    protected static SecurityPolicyComponent component() {
+        return (SecurityPolicyComponent) Framework.getRuntime()
+                                                  .getComponent("org.nuxeo.sample.securitypolicy.SecurityPolicyComponent");
+    }
+
+}
@@ -0,0 +1,131 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.security.Access.DENY;
+import static org.nuxeo.ecm.core.api.security.Access.GRANT;
+import static org.nuxeo.ecm.core.api.security.Access.UNKNOWN;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.sample.BypassPrincipals;
+import org.nuxeo.sample.LatencyReservoir;
+import org.nuxeo.sample.PolicyConfig;
+import org.nuxeo.sample.PolicyMetrics;
+import org.nuxeo.sample.PolicyMetrics.PrincipalClass;
+
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+import io.dropwizard.metrics5.Snapshot;
+
+public class TestPolicyMetrics {
+
+    static final NuxeoPrincipal membersPrincipal = new UserPrincipal("members", new ArrayList<>(), false, false);
+
+    static final NuxeoPrincipal adminPrincipal = new UserPrincipal("Administrator", new ArrayList<>(), false, true);
+
+    protected MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    protected MetricName name = MetricName.build("nuxeo", "securitypolicy");
+
+    @After
+    public void tearDown() {
+    	PolicyConfig.install(PolicyConfig.DEFAULT);
+    }
+
+    @Test
+    public void testChecked() throws Exception {
+
+        PolicyMetrics metrics = PolicyMetrics.of("test-checked");
+        long checks = registry.timer(name.resolve("check").tagged("policy", "test-checked")).getCount();
+
+        assertSame(DENY, metrics.checked(System.nanoTime(), READ, DENY));
+        assertSame(DENY, metrics.checked(System.nanoTime(), READ, DENY));
+        assertSame(UNKNOWN, metrics.checked(System.nanoTime(), READ, UNKNOWN));
+
+        assertEquals(checks + 3, registry.timer(name.resolve("check").tagged("policy", "test-checked")).getCount());
+        assertEquals(2, verdicts("test-checked", READ, DENY));
+        assertEquals(1, verdicts("test-checked", READ, UNKNOWN));
+        assertEquals(0, verdicts("test-checked", READ, GRANT));
+    }
+
+    @Test
+    public void testTransformed() throws Exception {
+
+        PolicyMetrics metrics = PolicyMetrics.of("test-transformed");
+        SQLQuery query = SQLQueryParser.parse("SELECT * FROM Document");
+
+        assertSame(query, metrics.transformed(System.nanoTime(), membersPrincipal, query));
+        assertSame(query, metrics.transformed(System.nanoTime(), adminPrincipal, query));
+
+        assertEquals(1, principals("test-transformed", PrincipalClass.USER));
+        assertEquals(1, principals("test-transformed", PrincipalClass.UNRESTRICTED));
+        assertEquals(0, principals("test-transformed", PrincipalClass.SYSTEM));
+    }
+
+    @Test
+    public void testClassFollowsBypass() throws Exception {
+    	assertSame(PrincipalClass.UNRESTRICTED, PolicyMetrics.classOf(adminPrincipal));
+    	// the policies apply to the Administrator when it doesn't bypass them, so does its class
+    	BypassPrincipals.install(BypassPrincipals.compile(List.of()));
+    	assertSame(PrincipalClass.USER, PolicyMetrics.classOf(adminPrincipal));
+    }
+
+    @Test
+    public void testReservoir() throws Exception {
+    	LatencyReservoir reservoir = new LatencyReservoir();
+    	for (long i = 1; i <= 1000; i++) {
+    		reservoir.update(i * 1000);
+    	}
+    	Snapshot snapshot = reservoir.getSnapshot();
+    	assertEquals(1000, snapshot.size());
+    	// within 1/16 of the real values
+    	assertEquals(500_000, snapshot.getMedian(), 500_000 / 16);
+    	assertEquals(990_000, snapshot.getValue(0.99), 990_000 / 16);
+    	assertEquals(1000, snapshot.getMin(), 1000 / 16);
+    	assertEquals(1_000_000, snapshot.getMax(), 1_000_000 / 16);
+    	assertEquals(1000, snapshot.getValues().length);
+    	// the next snapshot starts from scratch
+    	assertEquals(0, reservoir.getSnapshot().size());
+    }
+
+    @Test
+    public void testReservoirBuckets() throws Exception {
+    	int previous = -1;
+    	for (long value = 0; value < 100_000; value++) {
+    		int index = LatencyReservoir.indexOf(value);
+    		assertTrue(index == previous || index == previous + 1);
+    		previous = index;
+    		assertEquals(value, LatencyReservoir.valueOf(index), Math.max(1, value / 16));
+    	}
+    	assertEquals(Long.MAX_VALUE, LatencyReservoir.valueOf(LatencyReservoir.indexOf(Long.MAX_VALUE)),
+    	        Long.MAX_VALUE / 16);
+    }
+
+    @Test
+    public void testShared() throws Exception {
+    	assertSame(PolicyMetrics.of("lifecycle"), PolicyMetrics.of("lifecycle"));
+    }
+
+    protected long verdicts(String policy, String permission, Access access) {
+        return registry.counter(name.resolve("verdict").tagged("policy", policy, "permission", permission, "access",
+                access.name())).getCount();
+    }
+
+    protected long principals(String policy, PrincipalClass c) {
+        return registry.counter(name.resolve("transform").resolve("principal").tagged("policy", policy, "class",
+                c.name())).getCount();
+    }
+}
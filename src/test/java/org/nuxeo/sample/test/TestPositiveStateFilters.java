@@ -0,0 +1,133 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.PolicyConfig;
+import org.nuxeo.sample.PositiveStateFilters;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/lifecycle-contrib.xml"
+})
+public class TestPositiveStateFilters {
+
+    static final String members = "members";
+	static final NuxeoPrincipal membersPrincipal = new UserPrincipal(members, new ArrayList<>(), false, false);
+
+    @Inject
+    protected CoreSession coreSession;
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Before
+    public void setUp() {
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "approved", "File"));
+        coreSession.followTransition(new PathRef("/approved"), "approve");
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "project", "File"));
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "archived", "CustomFile"));
+        coreSession.followTransition(new PathRef("/archived"), "to_archived");
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "draft", "CustomFile"));
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "workspace1", "Workspace"));
+
+    	coreSession.save();
+    }
+
+    @After
+    public void tearDown() {
+    	PolicyConfig.install(PolicyConfig.DEFAULT);
+    }
+
+    @Test
+    public void testTransformer() throws Exception {
+
+    	PolicyConfig.update(config -> config.withPositiveFilters(PositiveStateFilters.compute(config)));
+
+        SQLQuery p = SQLQueryParser.parse("SELECT * FROM Document");
+    	String s = LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER.transform(membersPrincipal, p).toString();
+    	assertFalse(s.contains("NOT"));
+    	assertTrue(s.contains("ecm:primaryType <> 'File'"));
+    	// approved is the only state of the default lifecycle the policy allows
+    	assertTrue(s.contains("ecm:currentLifeCycleState = 'approved'"));
+
+    	s = ArchivedSecurityPolicy.ARCHIVED_TRANSFORMER.transform(membersPrincipal, p).toString();
+    	assertFalse(s.contains("NOT"));
+    	assertTrue(s.contains("ecm:primaryType <> 'CustomFile'"));
+    	assertTrue(s.contains("ecm:currentLifeCycleState = 'archived'"));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+
+    	String s = PositiveStateFilters.build("File", List.of("approved", "obsolete")).toString();
+    	assertTrue(s.contains("ecm:currentLifeCycleState IN"));
+    	assertTrue(s.contains("'obsolete'"));
+
+    	// no allowed state, only the other types
+    	s = PositiveStateFilters.build("File", List.of()).toString();
+    	assertTrue(s.contains("ecm:primaryType <> 'File'"));
+    	assertFalse(s.contains("ecm:currentLifeCycleState"));
+    }
+
+    @Test
+    public void testSameResults() throws Exception {
+
+    	Set<String> negative = ids("SELECT * FROM Document");
+    	// the approved File and the archived CustomFile
+    	assertEquals(2, ids("SELECT * FROM File").size());
+
+    	PolicyConfig.update(config -> config.withPositiveFilters(PositiveStateFilters.compute(config)));
+    	assertEquals(negative, ids("SELECT * FROM Document"));
+    	assertEquals(2, ids("SELECT * FROM File").size());
+    }
+
+    protected Set<String> ids(String query) {
+    	Set<String> ids = new HashSet<>();
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSession("members")) {
+        	for (DocumentModel doc : coreSession.query(query)) {
+        		ids.add(doc.getId());
+        	}
+        }
+    	return ids;
+    }
+}
@@ -0,0 +1,173 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.NoItarSecurityPolicy;
+import org.nuxeo.sample.PredicateNormalizer;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/lifecycle-contrib.xml"
+})
+public class TestPredicateNormalizer {
+
+    static final String members = "members";
+	static final NuxeoPrincipal membersPrincipal = new UserPrincipal(members, new ArrayList<>(), false, false);
+
+	static final String[] QUERIES = {
+		"SELECT * FROM Document",
+		"SELECT * FROM File WHERE ecm:isVersion = 0",
+		"SELECT * FROM Document WHERE NOT (ecm:currentLifeCycleState = 'project' OR dc:title IS NULL)",
+		"SELECT * FROM Document WHERE ecm:primaryType = 'File' OR ecm:primaryType = 'CustomFile' ORDER BY dc:title"
+	};
+
+	// same order as the test policies contribution
+	static final Transformer[] CHAIN = {
+		DcExpiredSecurityPolicy.DC_EXPIRED_TRANSFORMER,
+		LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER,
+		ArchivedSecurityPolicy.ARCHIVED_TRANSFORMER
+	};
+
+    protected PredicateNormalizer normalizer = new PredicateNormalizer();
+
+    @Inject
+    protected CoreSession coreSession;
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Before
+    public void setUp() {
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "approved", "File"));
+        coreSession.followTransition(new PathRef("/approved"), "approve");
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "project", "File"));
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "archived", "CustomFile"));
+        coreSession.followTransition(new PathRef("/archived"), "to_archived");
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "draft", "CustomFile"));
+
+        Calendar cal = Calendar.getInstance();
+        cal.set(2010, Calendar.JANUARY, 1, 0, 0, 0);
+    	DocumentModel expired = coreSession.createDocumentModel("/", "expired", "File");
+    	expired.setPropertyValue("dc:expired", cal);
+    	coreSession.createDocument(expired);
+        coreSession.followTransition(new PathRef("/expired"), "approve");
+
+    	coreSession.createDocument(coreSession.createDocumentModel("/", "workspace1", "Workspace"));
+
+    	coreSession.save();
+    }
+
+    @Test
+    public void testSameResults() throws Exception {
+
+    	for (String query : QUERIES) {
+    		SQLQuery chained = SQLQueryParser.parse(query);
+    		for (Transformer t : CHAIN) {
+    			chained = t.transform(membersPrincipal, chained);
+    		}
+    		SQLQuery normalized = normalizer.normalize(chained);
+
+    		// the Administrator is not restricted, the transformed queries are run as they are
+    		Set<String> expected = ids(coreSession.query(chained.toString()));
+    		assertEquals(query, expected, ids(coreSession.query(normalized.toString())));
+
+    		// and they filter what the policies filter
+            try (CloseableCoreSession coreSession = coreFeature.openCoreSession("members")) {
+            	assertEquals(query, expected, ids(coreSession.query(query)));
+            }
+    	}
+    }
+
+    @Test
+    public void testMergePrimaryType() throws Exception {
+
+        SQLQuery p = SQLQueryParser.parse("SELECT * FROM Document WHERE ecm:isVersion = 0");
+        p = LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER.transform(membersPrincipal, p);
+        p = NoItarSecurityPolicy.NO_ITAR_TRANSFORMER.transform(membersPrincipal, p);
+        String before = p.toString();
+        String after = normalizer.normalize(p).toString();
+
+    	assertEquals(2, count(before, "ecm:primaryType = 'File'"));
+    	// a single type test, pushed out of the NOTs
+    	assertEquals(1, count(after, "ecm:primaryType <> 'File'"));
+    	assertFalse(after.contains("ecm:primaryType = 'File'"));
+    	assertTrue(after.contains("ecm:currentLifeCycleState = 'approved'"));
+    }
+
+    @Test
+    public void testSimplify() throws Exception {
+
+    	// tautology
+        SQLQuery p = SQLQueryParser.parse("SELECT * FROM Document WHERE dc:title IS NULL OR dc:title IS NOT NULL");
+        assertNull(normalizer.normalize(p).where);
+
+        // implied by the comparison
+        p = SQLQueryParser.parse("SELECT * FROM Document WHERE dc:expired IS NOT NULL AND dc:expired < TIMESTAMP '2020-01-01T00:00:00'");
+        assertFalse(normalizer.normalize(p).toString().contains("IS NOT NULL"));
+
+        // duplicates and absorption
+        p = SQLQueryParser.parse("SELECT * FROM Document WHERE ecm:isVersion = 0 AND (ecm:isVersion = 0 OR dc:title = 'a') AND ecm:isVersion = 0");
+        String s = normalizer.normalize(p).toString();
+        assertEquals(1, count(s, "ecm:isVersion = 0"));
+        assertFalse(s.contains("dc:title"));
+
+        // a NOT on a list property stays in place
+        p = SQLQueryParser.parse("SELECT * FROM Document WHERE NOT (dc:subjects = 'a')");
+        assertTrue(normalizer.normalize(p).toString().contains("NOT"));
+    }
+
+    protected static Set<String> ids(Iterable<DocumentModel> docs) {
+    	Set<String> ids = new HashSet<>();
+    	docs.forEach(doc -> ids.add(doc.getId()));
+    	return ids;
+    }
+
+    protected static int count(String s, String part) {
+    	int count = 0;
+    	for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+    		count++;
+    	}
+    	return count;
+    }
+}
@@ -0,0 +1,181 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.security.ACE;
+import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
+import org.nuxeo.ecm.core.event.EventServiceAdmin;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+import org.nuxeo.sample.DcRightsSecurityPolicy;
+import org.nuxeo.sample.PolicyConfig;
+import org.nuxeo.sample.RightsAcl;
+import org.nuxeo.sample.RightsAclBackfillWork;
+
+@RunWith(FeaturesRunner.class)
+@Features(PlatformFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/rights-acl-contrib.xml"
+})
+public class TestRightsAcl {
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
+    @Inject
+    protected EventServiceAdmin eventServiceAdmin;
+
+    @Before
+    public void enableProjection() {
+    	PolicyConfig.install(PolicyConfig.current().withRightsAclProjection(true));
+    }
+
+    @After
+    public void resetConfig() {
+    	PolicyConfig.install(PolicyConfig.DEFAULT);
+    }
+
+    @Test
+    public void testListener() throws Exception {
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+	    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", "group1", "File");
+	    	doc.setPropertyValue("dc:rights", "GROUP1");
+	    	doc = coreSession.createDocument(doc);
+	    	ACL acl = coreSession.getACP(doc.getRef()).getACL(RightsAcl.ACL_NAME);
+	    	assertNotNull(acl);
+	    	assertEquals("GROUP1", acl.get(0).getUsername());
+	    	// comes first, before the local ACL
+	    	assertEquals(RightsAcl.ACL_NAME, coreSession.getACP(doc.getRef()).getACLs()[0].getName());
+
+	    	doc.setPropertyValue("dc:rights", "GROUP2");
+	    	doc = coreSession.saveDocument(doc);
+	    	assertEquals("GROUP2", coreSession.getACP(doc.getRef()).getACL(RightsAcl.ACL_NAME).get(0).getUsername());
+
+	    	doc.setPropertyValue("dc:rights", null);
+	    	doc = coreSession.saveDocument(doc);
+	    	assertNull(coreSession.getACP(doc.getRef()).getACL(RightsAcl.ACL_NAME));
+    	}
+    }
+
+    @Test
+    public void testListenerWithoutWriteSecurity() throws Exception {
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+	    	DocumentModel workspace = coreSession.createDocumentModel("/default-domain/workspaces", "ws", "Workspace");
+	    	workspace = coreSession.createDocument(workspace);
+	    	ACP acp = workspace.getACP();
+	    	acp.addACE(ACL.LOCAL_ACL, new ACE("user1", SecurityConstants.READ_WRITE, true));
+	    	coreSession.setACP(workspace.getRef(), acp, true);
+	    	coreSession.save();
+    	}
+    	txFeature.nextTransaction();
+
+    	// ReadWrite only, the ACL is still projected
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSession("user1")) {
+	    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces/ws", "group1", "File");
+	    	doc.setPropertyValue("dc:rights", "GROUP1");
+	    	doc = coreSession.createDocument(doc);
+	    	coreSession.save();
+	    	assertEquals("GROUP1", coreSession.getACP(doc.getRef()).getACL(RightsAcl.ACL_NAME).get(0).getUsername());
+    	}
+    }
+
+    @Test
+    public void testListenerDisabled() throws Exception {
+    	PolicyConfig.install(PolicyConfig.current().withRightsAclProjection(false));
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+	    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", "group1", "File");
+	    	doc.setPropertyValue("dc:rights", "GROUP1");
+	    	doc = coreSession.createDocument(doc);
+	    	assertNull(coreSession.getACP(doc.getRef()).getACL(RightsAcl.ACL_NAME));
+    	}
+    }
+
+    @Test
+    public void testQueryFilteredByAcl() throws Exception {
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+    		for (String rights : new String[] { "GROUP1", "GROUP2", "UNMAPPED" }) {
+		    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", rights, "File");
+		    	doc.setPropertyValue("dc:rights", rights);
+		    	coreSession.createDocument(doc);
+    		}
+	    	coreSession.save();
+    	}
+    	txFeature.nextTransaction();
+
+    	// no query transformer, the read ACLs filter the results
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSession("user1")) {
+    		assertEquals(2, coreSession.query("SELECT * FROM File").size());
+    	}
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSession("user3")) {
+    		assertEquals(1, coreSession.query("SELECT * FROM File").size());
+    	}
+    }
+
+    @Test
+    public void testBackfill() throws Exception {
+    	String id;
+    	eventServiceAdmin.setListenerEnabledFlag("rightsAcl", false);
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+	    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", "group3", "File");
+	    	doc.setPropertyValue("dc:rights", "GROUP3");
+	    	id = coreSession.createDocument(doc).getId();
+	    	coreSession.save();
+    	} finally {
+    		eventServiceAdmin.setListenerEnabledFlag("rightsAcl", true);
+    	}
+    	txFeature.nextTransaction();
+
+    	RightsAclBackfillWork.schedule(coreFeature.getRepositoryName());
+    	txFeature.nextTransaction();
+
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+    		ACL acl = coreSession.getACP(new IdRef(id)).getACL(RightsAcl.ACL_NAME);
+    		assertNotNull(acl);
+    		assertEquals("GROUP3", acl.get(0).getUsername());
+    	}
+    }
+
+    @Test
+    public void testTransformerDisabled() throws Exception {
+    	SQLQuery p = SQLQueryParser.parse("SELECT * FROM File");
+    	assertSame(p, new DcRightsSecurityPolicy(true).getQueryTransformer("test").transform(null, p));
+    	assertTrue(new DcRightsSecurityPolicy(true).getColumns().isEmpty());
+    	// follows the configuration
+    	assertSame(p, new DcRightsSecurityPolicy().getQueryTransformer("test").transform(null, p));
+    	PolicyConfig.install(PolicyConfig.current().withRightsAclProjection(false));
+    	assertFalse(new DcRightsSecurityPolicy().getColumns().isEmpty());
+    }
+
+}
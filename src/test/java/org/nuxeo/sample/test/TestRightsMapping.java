@@ -0,0 +1,122 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.security.Access.DENY;
+import static org.nuxeo.ecm.core.api.security.Access.GRANT;
+import static org.nuxeo.ecm.core.api.security.Access.UNKNOWN;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.AbstractSession;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.model.Session;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
+import org.nuxeo.ecm.core.security.SecurityPolicyService;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.DcRightsSecurityPolicy.DcRightsTransformer;
+import org.nuxeo.sample.RightsTable;
+
+@RunWith(FeaturesRunner.class)
+@Features(PlatformFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-service.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/rights-security-policy-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/rights-mapping-test-contrib.xml"
+})
+public class TestRightsMapping {
+
+    @Inject
+    protected SecurityPolicyService service;
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Inject
+    protected UserManager userManager;
+
+    String sharedId, unmappedId;
+
+    @Before
+    public void setUp() {
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+
+	    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", "shared", "File");
+	    	doc.setPropertyValue("dc:rights", "SHARED");
+	    	doc = coreSession.createDocument(doc);
+	    	sharedId = doc.getId();
+
+	    	DocumentModel doc2 = coreSession.createDocumentModel("/default-domain/workspaces", "unmapped", "File");
+	    	doc2.setPropertyValue("dc:rights", "UNMAPPED");
+	    	doc2 = coreSession.createDocument(doc2);
+	    	unmappedId = doc2.getId();
+
+	    	coreSession.save();
+    	}
+    }
+
+    @Test
+    public void testCompiledTable() throws Exception {
+        // the four default mappings plus the test one, over three groups
+        assertEquals(5, RightsTable.current().getRightsGroups().size());
+        assertEquals(3, RightsTable.current().getGroupIndex().size());
+    }
+
+    @Test
+    public void testCheckPermission() throws Exception {
+    	String permission = READ;
+        String[] permissions = { READ };
+
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+        	Session documentSession = ((AbstractSession) coreSession).getSession();
+
+        	Document shared = documentSession.getDocumentByUUID(sharedId);
+        	assertSame(DENY, service.checkPermission(shared, null, userManager.getPrincipal("user1"), permission, permissions, null));
+        	assertSame(GRANT, service.checkPermission(shared, null, userManager.getPrincipal("user2"), permission, permissions, null));
+        	assertSame(GRANT, service.checkPermission(shared, null, userManager.getPrincipal("user3"), permission, permissions, null));
+
+        	Document unmapped = documentSession.getDocumentByUUID(unmappedId);
+        	assertSame(UNKNOWN, service.checkPermission(unmapped, null, userManager.getPrincipal("user1"), permission, permissions, null));
+        }
+    }
+
+    @Test
+    public void testTransformer() throws Exception {
+    	Transformer t = new DcRightsTransformer();
+    	SQLQuery p = SQLQueryParser.parse("SELECT * FROM File");
+
+    	// every value the principal is entitled to is listed
+    	String s = t.transform(userManager.getPrincipal("user2"), p).toString();
+    	assertTrue(s.contains("SHARED"));
+    	assertTrue(s.contains("GROUP2"));
+    	assertFalse(s.contains("GROUP1"));
+
+    	s = t.transform(userManager.getPrincipal("user1"), p).toString();
+    	assertTrue(s.contains("DEFAULT"));
+    	assertTrue(s.contains("GROUP1"));
+    	assertFalse(s.contains("SHARED"));
+    }
+
+}
@@ -0,0 +1,185 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.security.Access.DENY;
+import static org.nuxeo.ecm.core.api.security.Access.UNKNOWN;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.AbstractSession;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.model.Session;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.ecm.core.security.SecurityPolicyService;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.ecm.platform.usermanager.UserManager;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.RuleSecurityPolicy;
+import org.nuxeo.sample.RuleSet;
+
+@RunWith(FeaturesRunner.class)
+@Features(PlatformFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-service.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/lifecycle-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/rules-test-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/rules-invalid-test-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/itar-schema-test-contrib.xml"
+})
+public class TestRuleSecurityPolicy {
+
+    protected DocumentModel doc;
+    protected DocumentModel doc2;
+
+    @Inject
+    protected SecurityPolicyService service;
+
+    @Inject
+    protected CoreSession coreSession;
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Inject
+    protected UserManager userManager;
+
+    @Inject
+    protected SchemaManager schemaManager;
+
+    @Before
+    public void setUp() {
+
+    	doc = coreSession.createDocumentModel("/", "archived", "CustomFile");
+    	doc = coreSession.createDocument(doc);
+        coreSession.followTransition(new PathRef("/archived"), "to_archived");
+
+    	doc2 = coreSession.createDocumentModel("/", "project", "CustomFile");
+    	doc2 = coreSession.createDocument(doc2);
+
+    	coreSession.save();
+    }
+
+    @Test
+    public void testCheckPermission() throws Exception {
+
+    	String permission = READ;
+        String[] permissions = { READ };
+        NuxeoPrincipal user1 = userManager.getPrincipal("user1");
+        NuxeoPrincipal user2 = userManager.getPrincipal("user2");
+
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSession("Administrator")) {
+        	Session documentSession = ((AbstractSession) coreSession).getSession();
+
+        	Document d = documentSession.getDocumentByUUID(doc.getId());
+        	assertSame(UNKNOWN, service.checkPermission(d, null, user2, permission, permissions, null));
+
+        	Document d2 = documentSession.getDocumentByUUID(doc2.getId());
+        	assertSame(DENY, service.checkPermission(d2, null, user2, permission, permissions, null));
+        	// GROUP1 is exempted
+        	assertSame(UNKNOWN, service.checkPermission(d2, null, user1, permission, permissions, null));
+        }
+    }
+
+    @Test
+    public void testTransformer() throws Exception {
+
+        SQLQuery p = SQLQueryParser.parse("SELECT * FROM Document");
+        SQLQuery s = RuleSecurityPolicy.RULE_TRANSFORMER.transform(userManager.getPrincipal("user2"), p);
+        assertTrue(s.toString().contains("ecm:currentLifeCycleState <> 'archived'"));
+        assertTrue(s.toString().contains("ecm:currentLifeCycleState IS NOT NULL"));
+
+        assertSame(p, RuleSecurityPolicy.RULE_TRANSFORMER.transform(userManager.getPrincipal("user1"), p));
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+
+        RuleSet rules = RuleSet.compile(Map.of("itar", "ITAR:ITAR_doc='Yes' AND type=File -> DENY unless group a, b"));
+        assertEquals(1, rules.getRules().size());
+        assertEquals(2, rules.getGroupIndex().size());
+        // a rule without exemption applies to everyone
+        assertNotNull(RuleSet.compile(Map.of("r", "type=File -> DENY")).filterFor(new BitSet()));
+
+        BitSet a = new BitSet();
+        a.set(rules.getGroupIndex().get("a").intValue());
+        assertNull(rules.filterFor(a));
+        assertNotNull(rules.filterFor(new BitSet()));
+    }
+
+    @Test
+    public void testInvalidRule() throws Exception {
+        assertTrue(RuleSet.compile(Map.of("bad", "type=File -> ALLOW")).isEmpty());
+
+        Map<String, String> expressions = new LinkedHashMap<>();
+        expressions.put("bad", "type=File AND state -> DENY unless group a");
+        expressions.put("good", "type=File -> DENY unless group b");
+        RuleSet rules = RuleSet.compile(expressions);
+        assertEquals(1, rules.getRules().size());
+        assertEquals("good", rules.getRules().get(0).getName());
+        // the groups of the skipped rule are not indexed
+        assertEquals(Set.of("b"), rules.getGroupIndex().keySet());
+    }
+
+    @Test
+    public void testNonStringProperty() throws Exception {
+        Map<String, String> expressions = new LinkedHashMap<>();
+        expressions.put("itar", "ITAR:ITAR_doc='Yes' -> DENY");
+        expressions.put("rights", "dc:rights=GROUP1 -> DENY");
+        assertEquals(2, RuleSet.compile(expressions, schemaManager).getRules().size());
+        // a date, a list and an unknown property
+        assertTrue(RuleSet.compile(Map.of("expired", "dc:expired!=x -> DENY"), schemaManager).isEmpty());
+        assertTrue(RuleSet.compile(Map.of("subjects", "dc:subjects=x -> DENY"), schemaManager).isEmpty());
+        assertTrue(RuleSet.compile(Map.of("unknown", "foo:bar=x -> DENY"), schemaManager).isEmpty());
+
+        // not checked without the schemas, the date never matches instead of being compared as a string
+        DocumentModel expired = coreSession.createDocumentModel("/", "expired", "File");
+        expired.setPropertyValue("dc:expired", Calendar.getInstance());
+        expired = coreSession.createDocument(expired);
+        coreSession.save();
+        RuleSet rules = RuleSet.compile(Map.of("expired", "dc:expired!=x -> DENY"));
+        assertEquals(1, rules.getRules().size());
+        Document d = ((AbstractSession) coreSession).getSession().getDocumentByUUID(expired.getId());
+        assertNull(rules.denying(d, new BitSet()));
+    }
+
+    @Test
+    public void testInvalidContribution() throws Exception {
+        // the contributed archived rule still applies next to the invalid one, see testCheckPermission
+        List<RuleSet.Rule> rules = RuleSet.current().getRules();
+        assertEquals(1, rules.size());
+        assertEquals("archived", rules.get(0).getName());
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.Predicate;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
+import org.nuxeo.ecm.core.query.sql.model.WhereClause;
+import org.nuxeo.sample.TransformedQueryCache;
+
+public class TestTransformedQueryCache {
+
+    static final Predicate group1 = new Predicate(new Reference("dc:rights"), Operator.EQ, new StringLiteral("GROUP1"));
+
+    static final Predicate group2 = new Predicate(new Reference("dc:rights"), Operator.EQ, new StringLiteral("GROUP2"));
+
+    protected AtomicInteger transformations = new AtomicInteger();
+
+    protected Function<SQLQuery, SQLQuery> transformation(Predicate filter) {
+    	return q -> {
+    		transformations.incrementAndGet();
+    		return new SQLQuery(q.select, q.from, new WhereClause(filter), q.groupBy, q.having, q.orderBy, q.limit,
+    		        q.offset);
+    	};
+    }
+
+    @Test
+    public void testSameQuery() throws Exception {
+    	TransformedQueryCache cache = new TransformedQueryCache(16);
+    	SQLQuery query = SQLQueryParser.parse("SELECT * FROM Document");
+
+    	SQLQuery transformed = cache.get(group1, query, transformation(group1));
+    	assertSame(transformed, cache.get(group1, query, transformation(group1)));
+    	assertEquals(1, transformations.get());
+
+    	// another group combination, another filter instance
+    	SQLQuery other = cache.get(group2, query, transformation(group2));
+    	assertNotSame(transformed, other);
+    	assertEquals(2, transformations.get());
+    }
+
+    @Test
+    public void testEqualQuery() throws Exception {
+    	TransformedQueryCache cache = new TransformedQueryCache(16);
+    	SQLQuery query = SQLQueryParser.parse("SELECT * FROM Document");
+    	SQLQuery equal = SQLQueryParser.parse("SELECT * FROM Document");
+
+    	// keyed by identity, the content of the query is never read
+    	SQLQuery transformed = cache.get(group1, query, transformation(group1));
+    	assertNotSame(transformed, cache.get(group1, equal, transformation(group1)));
+    	assertEquals(2, transformations.get());
+    	assertEquals(2, cache.size());
+    }
+
+}
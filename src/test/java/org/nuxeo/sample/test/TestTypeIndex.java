@@ -0,0 +1,179 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.security.Access.DENY;
+import static org.nuxeo.ecm.core.api.security.Access.UNKNOWN;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.AbstractSession;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.model.Session;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.security.SecurityPolicyService;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.sample.ArchivedSecurityPolicy;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.PolicyConfig;
+import org.nuxeo.sample.TypeIndex;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+@LocalDeploy({
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-service.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/security-policy-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/lifecycle-contrib.xml",
+    "org.nuxeo.sample.securitypolicy:OSGI-INF/subtypes-test-contrib.xml"
+})
+public class TestTypeIndex {
+
+    static final String members = "members";
+	static final NuxeoPrincipal membersPrincipal = new UserPrincipal(members, new ArrayList<>(), false, false);
+
+    protected DocumentModel approved;
+    protected DocumentModel archived;
+    protected DocumentModel draft;
+    protected DocumentModel approvedProject;
+    protected DocumentModel project;
+
+    @Inject
+    protected SecurityPolicyService service;
+
+    @Inject
+    protected CoreSession coreSession;
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Before
+    public void setUp() {
+
+    	approved = coreSession.createDocument(coreSession.createDocumentModel("/", "approved", "File"));
+        coreSession.followTransition(new PathRef("/approved"), "approve");
+
+    	// CustomFile extends File, see lifecycle-contrib.xml
+    	archived = coreSession.createDocument(coreSession.createDocumentModel("/", "archived", "CustomFile"));
+        coreSession.followTransition(new PathRef("/archived"), "to_archived");
+
+    	draft = coreSession.createDocument(coreSession.createDocumentModel("/", "draft", "CustomFile"));
+
+    	// ProjectFile extends File with the default lifecycle, see subtypes-test-contrib.xml
+    	approvedProject = coreSession.createDocument(coreSession.createDocumentModel("/", "approvedProject", "ProjectFile"));
+        coreSession.followTransition(new PathRef("/approvedProject"), "approve");
+
+    	project = coreSession.createDocument(coreSession.createDocumentModel("/", "project", "ProjectFile"));
+
+    	coreSession.save();
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+
+    	Map<String, String> superTypes = new LinkedHashMap<>();
+    	superTypes.put("Document", null);
+    	superTypes.put("File", "Document");
+    	superTypes.put("CustomFile", "File");
+    	superTypes.put("Note", "Document");
+    	TypeIndex types = TypeIndex.compile(superTypes);
+
+    	assertTrue(types.isA("CustomFile", types.idOf("File")));
+    	assertTrue(types.isA("CustomFile", types.idOf("Document")));
+    	assertTrue(types.isA("File", types.idOf("File")));
+    	assertFalse(types.isA("File", types.idOf("CustomFile")));
+    	assertFalse(types.isA("Note", types.idOf("File")));
+    	assertFalse(types.isA("Unknown", types.idOf("File")));
+    	assertFalse(types.isA("File", types.idOf("Unknown")));
+    	assertEquals(TypeIndex.UNKNOWN, types.idOf("Unknown"));
+
+    	assertEquals(List.of("File", "CustomFile"), types.subtypesOf("File"));
+    	assertEquals(List.of("File"), types.subtypesOf("File", "CustomFile"));
+    	assertEquals(List.of("Unknown"), types.subtypesOf("Unknown"));
+    	assertTrue(types.primaryTypeIn("File").toString().contains("IN"));
+    	assertFalse(types.primaryTypeIn("Note").toString().contains("IN"));
+    }
+
+    @Test
+    public void testDeployedTypes() throws Exception {
+
+    	PolicyConfig config = PolicyConfig.current();
+    	assertTrue(config.isFile("File"));
+    	assertTrue(config.isFile("CustomFile"));
+    	assertTrue(config.isFile("ProjectFile"));
+    	assertTrue(config.isCustomFile("CustomFile"));
+    	assertFalse(config.isCustomFile("File"));
+    	assertFalse(config.isFile("Workspace"));
+
+    	// the File rule applies to its subtypes, but the CustomFiles which have the archived rule
+    	assertTrue(LifeCycleSecurityPolicy.isDenied("ProjectFile", "project"));
+    	assertFalse(LifeCycleSecurityPolicy.isDenied("ProjectFile", "approved"));
+    	assertFalse(LifeCycleSecurityPolicy.isDenied("CustomFile", "archived"));
+    	assertFalse(ArchivedSecurityPolicy.isDenied("CustomFile", "archived"));
+    	assertTrue(ArchivedSecurityPolicy.isDenied("CustomFile", "draft"));
+    }
+
+    @Test
+    public void testCheckPermission() throws Exception {
+
+    	String[] permissions = { READ };
+
+    	// the lifecycle and archived policies together, see security-policy-contrib.xml
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSession("members")) {
+        	Session documentSession = ((AbstractSession) coreSession).getSession();
+
+        	assertSame(UNKNOWN, service.checkPermission(documentSession.getDocumentByUUID(approved.getId()), null, membersPrincipal, READ, permissions, null));
+        	assertSame(UNKNOWN, service.checkPermission(documentSession.getDocumentByUUID(archived.getId()), null, membersPrincipal, READ, permissions, null));
+        	assertSame(DENY, service.checkPermission(documentSession.getDocumentByUUID(draft.getId()), null, membersPrincipal, READ, permissions, null));
+        	assertSame(UNKNOWN, service.checkPermission(documentSession.getDocumentByUUID(approvedProject.getId()), null, membersPrincipal, READ, permissions, null));
+        	assertSame(DENY, service.checkPermission(documentSession.getDocumentByUUID(project.getId()), null, membersPrincipal, READ, permissions, null));
+        }
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSession("Administrator")) {
+        	assertEquals(5, coreSession.query("SELECT * FROM File").size());
+        }
+
+        // the approved File, the archived CustomFile and the approved ProjectFile
+        try (CloseableCoreSession coreSession = coreFeature.openCoreSession("members")) {
+        	assertEquals(3, coreSession.query("SELECT * FROM File").size());
+        }
+
+        SQLQuery p = SQLQueryParser.parse("SELECT * FROM Document");
+    	String s = LifeCycleSecurityPolicy.LIFECYCLE_TRANSFORMER.transform(membersPrincipal, p).toString();
+    	assertTrue(s.contains("ecm:primaryType IN"));
+    	assertTrue(s.contains("'ProjectFile'"));
+    	assertFalse(s.contains("'CustomFile'"));
+
+    	s = ArchivedSecurityPolicy.ARCHIVED_TRANSFORMER.transform(membersPrincipal, p).toString();
+    	assertTrue(s.contains("ecm:primaryType = 'CustomFile'"));
+    }
+}
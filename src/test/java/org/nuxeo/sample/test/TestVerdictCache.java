@@ -0,0 +1,146 @@
+package org.nuxeo.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.nuxeo.ecm.core.api.security.Access.DENY;
+import static org.nuxeo.ecm.core.api.security.Access.UNKNOWN;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.AbstractSession;
+import org.nuxeo.ecm.core.api.CloseableCoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.model.Session;
+import org.nuxeo.ecm.core.security.SecurityPolicy;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.sample.CoarseClock;
+import org.nuxeo.sample.DcExpiredSecurityPolicy;
+import org.nuxeo.sample.LifeCycleSecurityPolicy;
+import org.nuxeo.sample.VerdictCache;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+
+@RunWith(FeaturesRunner.class)
+@Features(CoreFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({
+	"org.nuxeo.ecm.platform.content.template"
+})
+public class TestVerdictCache {
+
+    static final NuxeoPrincipal membersPrincipal = new UserPrincipal("members", new ArrayList<>(), false, false);
+
+    static final String[] PERMISSIONS = { READ };
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    protected AtomicLong millis = new AtomicLong(Instant.parse("2020-01-01T00:00:00Z").toEpochMilli());
+
+    protected CoarseClock clock;
+
+    protected VerdictCache cache;
+
+    protected String id;
+
+    @Before
+    public void setUp() {
+    	clock = new CoarseClock(new Clock() {
+
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(millis.get());
+            }
+        }, 1000);
+    	cache = new VerdictCache(100, 3600, clock);
+    	VerdictCache.install(cache);
+
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+	    	DocumentModel doc = coreSession.createDocumentModel("/default-domain/workspaces", "file", "File");
+	    	Calendar expired = Calendar.getInstance();
+	    	expired.setTimeInMillis(millis.get() + 60_000);
+	    	doc.setPropertyValue(DcExpiredSecurityPolicy.DC_EXPIRED_FIELD, expired);
+	    	id = coreSession.createDocument(doc).getId();
+	    	coreSession.save();
+    	}
+    }
+
+    @After
+    public void tearDown() {
+    	VerdictCache.install(null);
+    }
+
+    @Test
+    public void testHitsAndChangeToken() throws Exception {
+    	SecurityPolicy policy = new LifeCycleSecurityPolicy();
+    	Counter hits = SharedMetricRegistries.getOrCreate(MetricsService.class.getName())
+    	                                     .counter(MetricName.build("nuxeo", "securitypolicy", "verdict", "cache", "hit"));
+    	long before = hits.getCount();
+
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+    		Session documentSession = ((AbstractSession) coreSession).getSession();
+    		assertSame(DENY, policy.checkPermission(documentSession.getDocumentByUUID(id), null, membersPrincipal, READ, PERMISSIONS, null));
+    		assertSame(DENY, policy.checkPermission(documentSession.getDocumentByUUID(id), null, membersPrincipal, READ, PERMISSIONS, null));
+    		assertEquals(before + 1, hits.getCount());
+    		assertEquals(1, cache.size());
+
+    		// a new change token, the previous verdict is not looked up
+    		DocumentModel doc = coreSession.getDocument(new IdRef(id));
+    		doc.setPropertyValue("dc:title", "changed");
+    		coreSession.saveDocument(doc);
+    		coreSession.save();
+    		assertSame(DENY, policy.checkPermission(documentSession.getDocumentByUUID(id), null, membersPrincipal, READ, PERMISSIONS, null));
+    		assertEquals(before + 1, hits.getCount());
+    		assertEquals(2, cache.size());
+    	}
+    }
+
+    @Test
+    public void testNotCachedPastExpiry() throws Exception {
+    	SecurityPolicy policy = new DcExpiredSecurityPolicy(clock);
+    	try (CloseableCoreSession coreSession = coreFeature.openCoreSessionSystem()) {
+    		Session documentSession = ((AbstractSession) coreSession).getSession();
+    		assertSame(UNKNOWN, policy.checkPermission(documentSession.getDocumentByUUID(id), null, membersPrincipal, READ, PERMISSIONS, null));
+
+    		// the cached UNKNOWN was only valid until dc:expired
+    		millis.addAndGet(120_000);
+    		clock.tick();
+    		assertSame(DENY, policy.checkPermission(documentSession.getDocumentByUUID(id), null, membersPrincipal, READ, PERMISSIONS, null));
+    	}
+    }
+
+}